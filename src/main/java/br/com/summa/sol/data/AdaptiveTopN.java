@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A generic collection limited to size <code>N</code>, that delegates to the
+ * most efficient {@link TopN} implementation for its settings and observed
+ * workload, switching implementations at runtime whenever the workload changes.
+ * See {@link TopNs#create(int, int, ExclusionStrategy)}.<br>
+ * <br>
+ * The thresholds below were obtained from {@code TopNBenchmark} (under
+ * <code>src/test</code>):
+ * <ul>
+ * <li>Up to <code>N = 512</code>, {@link ListTopN} is fastest or nearly fastest
+ * for all workloads, including frequent reads.</li>
+ * <li>Above that, {@link HeapTopN} is fastest when most elements are rejected,
+ * but it must sort its contents again on each read after a change.</li>
+ * <li>{@link TreeTopN} is fastest when most elements are admitted (evicting
+ * others), or the result is read frequently. It's also the only implementation
+ * that supports <code>max &gt; N</code>.</li>
+ * </ul>
+ * Therefore this collection always starts with a {@link ListTopN} (unless
+ * <code>max &gt; N</code>), which is replaced when it reaches 512 elements. After
+ * that, it switches to {@link TreeTopN} if reads after changes happen more often
+ * than once every <code>4*N</code> added elements. Evictions are evaluated after
+ * each window of <code>max(N, 4096)</code> added elements, so the cost of switching
+ * implementations (which merges all elements into the new one) is amortized over
+ * the window: it switches to {@link TreeTopN} if more than 7/8 of the added elements
+ * were admitted, or back to {@link HeapTopN} if less than 1/16 were admitted and
+ * there were no reads.
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+class AdaptiveTopN<E extends Comparable<E>> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    // Measured with TopNBenchmark (10^6 Integer elements, JDK 8, single core), in
+    // nanoseconds per added element for list/heap/tree:
+    //   N = 512:  random 8.6/11.4/12.9, ascending 105/212/162, interleaved 14.6/57.7/20.3
+    //   N = 2048: random 17.8/17.0/26.5, ascending 449/244/150, interleaved 19.5/381/21.9
+    //   N = 8192: random 52.5/32.8/49.9, ascending 1938/297/179, interleaved 63.1/1746/40.2
+    // so lists stop being competitive between N = 512 and N = 2048, heaps are only
+    // faster when (almost) every element is rejected, and trees otherwise. The window
+    // and admission ratios used in adapt() are heuristics that amortize switching
+    // costs, not measured crossover points. Run TopNBenchmark again after changing any.
+    static final int SMALL_N = 512;
+    private static final int MIN_WINDOW = 4096;
+
+    private final int n;
+    private final int max;
+    private final ExclusionStrategy<E> exclusionStrategy;
+    private final int window;
+    private TopN<E> backend;
+    private int adds = 0;
+    private int evictions = 0;
+    private int dirtyReads = 0;
+    private boolean changed = false;
+
+    AdaptiveTopN(int n, int max, ExclusionStrategy<E> exclusionStrategy) {
+        if (max < n) {
+            throw new IllegalArgumentException("Invalid max");
+        }
+        this.n = n;
+        this.max = max;
+        this.exclusionStrategy = exclusionStrategy;
+        this.window = Math.max(n, MIN_WINDOW);
+        this.backend = initial();
+    }
+
+    TopN<E> backend() {
+        return backend;
+    }
+
+    private TopN<E> initial() {
+        if (max > n) {
+            return new TreeTopN<E>(n, max, exclusionStrategy);
+        }
+        return exclusionStrategy != null ? new ListTopN<E>(n, exclusionStrategy) : new ListTopN<E>(n);
+    }
+
+    private void migrate(TopN<E> replacement) {
+        replacement.merge(backend);
+        backend = replacement;
+        reset();
+    }
+
+    private void reset() {
+        adds = 0;
+        evictions = 0;
+        dirtyReads = 0;
+    }
+
+    /**
+     * Switches implementations if the current one is not the most efficient anymore.
+     */
+    private void adapt() {
+        if (backend instanceof ListTopN) {
+            if (n > SMALL_N && backend.size() >= SMALL_N) {
+                migrate(exclusionStrategy != null ? new TreeTopN<E>(n, exclusionStrategy) : new HeapTopN<E>(n));
+            }
+        } else if (adds >= window) {
+            // a heap is still efficient when admitted elements don't sift deep, as in
+            // random streams, so only switch if (almost) every element is admitted
+            if (backend instanceof HeapTopN && evictions*8L > adds*7L) {
+                migrate(new TreeTopN<E>(n));
+            } else if (backend instanceof TreeTopN && max == n && exclusionStrategy == null
+                    && evictions*16L < adds && dirtyReads == 0) {
+                migrate(new HeapTopN<E>(n));
+            } else {
+                reset();
+            }
+        }
+    }
+
+    private void read() {
+        if (changed) {
+            dirtyReads++;
+            changed = false;
+            // a heap sorts all elements again on each read after a change, so switch
+            // if that happens repeatedly, but not for a single read after loading
+            if (backend instanceof HeapTopN && dirtyReads >= 2 && dirtyReads*4L*n > adds) {
+                migrate(new TreeTopN<E>(n));
+            }
+        }
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. See {@link TopN}.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        final boolean full = backend.size() >= n;
+        final boolean added = backend.add(elem);
+        adds++;
+        if (added) {
+            changed = true;
+            if (full) {
+                evictions++;
+            }
+        }
+        if (added || adds >= window) {
+            adapt();
+        }
+        return added;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        return backend.wouldAccept(elem);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection.
+     * See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        if (!backend.merge(other)) {
+            return false;
+        }
+        changed = true;
+        adapt();
+        return true;
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order
+     */
+    @Override
+    public Iterator<E> iterator() {
+        read();
+        return backend.iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return backend.size();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return backend.isEmpty();
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        backend = initial();
+        reset();
+        changed = false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        return backend.contains(obj);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        return backend.containsAll(coll);
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public Object[] toArray() {
+        read();
+        return backend.toArray();
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order; the runtime type of the
+     * returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public <T> T[] toArray(T[] array) {
+        read();
+        return backend.toArray(array);
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+}
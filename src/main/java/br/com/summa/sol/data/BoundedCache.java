@@ -0,0 +1,248 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generic local cache with limited size, discarding entries according to a
+ * specified {@link EvictionPolicy}.<br>
+ * <br>
+ * Unlike {@link LruCache}, an access to an entry doesn't necessarily change its
+ * position: using {@link EvictionPolicy#CLOCK} or {@link EvictionPolicy#SIEVE},
+ * it only marks the entry as visited. Besides being cheaper, these policies
+ * resist better to scans, that would otherwise discard all frequently accessed
+ * entries.<br>
+ * <br>
+ * Optionally, new entries may also be filtered by their frequency ("TinyLFU"
+ * admission): a {@link FrequencySketch} estimates how often each key was recently
+ * read or written, using about 8 bytes per entry (allocated as the cache grows).
+ * Each access is counted once: a successful {@link #get(Object)}, or a
+ * {@link #put(Object, Object)}. A read that misses isn't counted, since it's
+ * usually followed by a write of the same key. When the cache is full, a new
+ * entry only replaces the entry chosen by the eviction policy if its key is
+ * estimated to be more frequent; otherwise the new entry is discarded instead,
+ * thus {@link #put(Object, Object)} may not store it at all. Therefore a burst
+ * of keys accessed only once cannot displace a working set accessed often.<br>
+ * <br>
+ * Only {@link #get(Object)} and {@link #put(Object, Object)} count as accesses,
+ * so replacing the value of an existing entry also marks it as accessed.
+ * Iterating over this cache doesn't change its eviction order, and iteration
+ * order is unspecified.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ *
+ * @author Einar Saukas
+ */
+public class BoundedCache<K, V> extends AbstractMap<K, V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxEntries;
+    private final EvictionPolicy policy;
+    private final boolean admission;
+    private transient HashMap<K, EvictionQueue.Node<K, V>> data;
+    private transient EvictionQueue<K, V> queue;
+    private transient FrequencySketch sketch;
+    private transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries.
+     *
+     * @param maxEntries Maximum number of entries
+     * @param policy Policy to choose which entry to discard when full
+     */
+    public BoundedCache(int maxEntries, EvictionPolicy policy) {
+        this(maxEntries, policy, false);
+    }
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries,
+     * optionally admitting new entries according to their frequency.
+     *
+     * @param maxEntries Maximum number of entries
+     * @param policy Policy to choose which entry to discard when full
+     * @param admission <code>true</code> to admit a new entry only if its key is
+     * estimated to be more frequent than the discarded one
+     */
+    public BoundedCache(int maxEntries, EvictionPolicy policy, boolean admission) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of entries");
+        }
+        this.maxEntries = maxEntries;
+        this.policy = policy;
+        this.admission = admission;
+        init();
+    }
+
+    private void init() {
+        data = new HashMap<K, EvictionQueue.Node<K, V>>();
+        queue = EvictionQueue.of(policy);
+        sketch = admission ? new FrequencySketch(maxEntries) : null;
+    }
+
+    /**
+     * Returns the eviction policy of this cache.
+     *
+     * @return The eviction policy of this cache
+     */
+    public EvictionPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public V get(Object key) {
+        final EvictionQueue.Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+        queue.access(node);
+        return node.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (sketch != null) {
+            sketch.ensureCapacity(data.size() + 1);
+            sketch.increment(key);
+        }
+        EvictionQueue.Node<K, V> node = data.get(key);
+        if (node != null) {
+            queue.access(node);
+            return node.setValue(value);
+        }
+        if (data.size() >= maxEntries) {
+            // a rejected entry must not advance the policy, so only peek at the victim
+            if (sketch != null && sketch.frequency(key) <= sketch.frequency(queue.peekVictim().getKey())) {
+                return null;
+            }
+            final EvictionQueue.Node<K, V> victim = queue.victim();
+            queue.remove(victim);
+            data.remove(victim.getKey());
+        }
+        node = new EvictionQueue.Node<K, V>(key, value);
+        data.put(key, node);
+        queue.add(node);
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        final EvictionQueue.Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        queue.remove(node);
+        return node.getValue();
+    }
+
+    @Override
+    public void clear() {
+        data.clear();
+        queue.clear();
+        if (sketch != null) {
+            sketch.clear();
+        }
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    final Iterator<EvictionQueue.Node<K, V>> it = data.values().iterator();
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private EvictionQueue.Node<K, V> current = null;
+
+                        @Override
+                        public boolean hasNext() {
+                            return it.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            current = it.next();
+                            return current;
+                        }
+
+                        @Override
+                        public void remove() {
+                            it.remove();
+                            queue.remove(current);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return data.size();
+                }
+
+                @Override
+                public void clear() {
+                    BoundedCache.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Saves entries from oldest to newest, according to the eviction policy.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(data.size());
+        for (EvictionQueue.Node<K, V> node = queue.sentinel.next; node != queue.sentinel; node = node.next) {
+            out.writeObject(node.getKey());
+            out.writeObject(node.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        init();
+        final int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            put((K)in.readObject(), (V)in.readObject());
+        }
+    }
+}
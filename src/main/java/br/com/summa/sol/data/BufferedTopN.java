@@ -0,0 +1,458 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A generic collection strictly limited to size <code>N</code>. If more than
+ * <code>N</code> elements are added, it will keep the greatest <code>N</code>
+ * elements only, discarding the others.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> such that <code>x.compareTo(y) == 0</code>, the oldest element
+ * in this collection will be treated as greater.<br>
+ * <br>
+ * This collection simply appends new elements into a preallocated buffer with
+ * capacity for <code>k*N</code> elements. Whenever this buffer is full, it's
+ * partitioned in place (using quickselect) to keep only the greatest <code>N</code>
+ * elements, and the lowest of them becomes a threshold that any new element must
+ * exceed in order to be buffered. Therefore adding an element takes amortized
+ * constant time, with sequential memory access. Sorting only happens when elements
+ * are read, through {@link #iterator()} or {@link #toArray()}. It's intended for
+ * bulk loading large batches, followed by a single read at the end.<br>
+ * <br>
+ * Notice that {@link #add(Comparable)} returns <code>true</code> whenever an
+ * element is buffered, even if it will be later discarded because there were
+ * already <code>N</code> greater elements in the buffer.
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class BufferedTopN<E extends Comparable<E>> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_FACTOR = 4;
+
+    private final int n;
+    private final Object[] buffer;
+    private final long[] order;
+    private int size = 0;
+    private long counter = 0;
+    private E threshold = null;
+    private transient Object[] sorted = null;
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * using a buffer with capacity for <code>4*N</code> elements.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     */
+    public BufferedTopN(int n) {
+        this(n, DEFAULT_FACTOR);
+    }
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * using a buffer with capacity for <code>k*N</code> elements.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param k Buffer capacity factor, which must be at least 2
+     */
+    public BufferedTopN(int n, int k) {
+        if (k < 2) {
+            throw new IllegalArgumentException("Invalid buffer factor");
+        }
+        this.n = n;
+        final int capacity = (int)Math.min(Integer.MAX_VALUE-8, (long)n*k);
+        this.buffer = new Object[capacity];
+        this.order = new long[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elem(int i) {
+        return (E)buffer[i];
+    }
+
+    // true if element at position i should be kept before element at position j
+    private boolean greater(int i, int j) {
+        final int cmp = elem(i).compareTo(elem(j));
+        return cmp > 0 || (cmp == 0 && order[i] < order[j]);
+    }
+
+    private void swap(int i, int j) {
+        final Object elem = buffer[i];
+        buffer[i] = buffer[j];
+        buffer[j] = elem;
+        final long seq = order[i];
+        order[i] = order[j];
+        order[j] = seq;
+    }
+
+    /**
+     * Partitions positions from <code>lo</code> to <code>hi</code> (inclusive)
+     * around a pivot, moving greater elements before it, and returns the final
+     * position of the pivot.
+     */
+    private int partition(int lo, int hi) {
+        swap((lo+hi) >>> 1, hi);
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            if (greater(i, hi)) {
+                swap(i, store++);
+            }
+        }
+        swap(store, hi);
+        return store;
+    }
+
+    /**
+     * Moves the greatest <code>k</code> elements to the first <code>k</code> positions,
+     * in no particular order.
+     */
+    private void select(int k) {
+        int lo = 0;
+        int hi = size-1;
+        while (lo < hi) {
+            final int pivot = partition(lo, hi);
+            if (pivot > k) {
+                hi = pivot-1;
+            } else if (pivot < k-1) {
+                lo = pivot+1;
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Sorts positions from <code>lo</code> to <code>hi</code> (inclusive) in
+     * descending order.
+     */
+    private void sort(int lo, int hi) {
+        while (lo < hi) {
+            final int pivot = partition(lo, hi);
+            // recurse into the smaller side only, to limit stack depth
+            if (pivot-lo < hi-pivot) {
+                sort(lo, pivot-1);
+                lo = pivot+1;
+            } else {
+                sort(pivot+1, hi);
+                hi = pivot-1;
+            }
+        }
+    }
+
+    /**
+     * Discards all buffered elements except the greatest <code>N</code>, and
+     * updates the admission threshold.
+     */
+    private void compact() {
+        if (size > n) {
+            select(n);
+            Arrays.fill(buffer, n, size, null);
+            size = n;
+            int lowest = 0;
+            for (int i = 1; i < size; i++) {
+                if (greater(lowest, i)) {
+                    lowest = i;
+                }
+            }
+            threshold = elem(lowest);
+        }
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. If the collection
+     * already discarded elements to keep only <code>N</code> of them, and the
+     * specified new element is not greater than any of them, it won't be added.
+     * Otherwise the specified element will be buffered and, if the collection
+     * contains more than <code>N</code> elements, the lowest of them will be
+     * automatically discarded.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if the element was successfully buffered,
+     * <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        if (threshold != null && threshold.compareTo(elem) >= 0) {
+            return false;
+        }
+        if (size == buffer.length) {
+            if (n == 0) {
+                return false;
+            }
+            compact();
+            if (threshold.compareTo(elem) >= 0) {
+                return false;
+            }
+        }
+        buffer[size] = elem;
+        order[size] = counter++;
+        size++;
+        sorted = null;
+        return true;
+    }
+
+    /**
+     * Returns the current admission threshold, such that any new element not
+     * greater than it will be rejected, or <code>null</code> if there's none yet.
+     * This threshold is only updated when the buffer is partitioned, so it may be
+     * lower than the lowest element of a full collection.
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return threshold;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        return n > 0 && (threshold == null || threshold.compareTo(elem) < 0);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if at least one element was successfully buffered,
+     * <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection,
+     * buffering them in descending order. See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if at least one element was successfully buffered,
+     * <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        return addAll(other);
+    }
+
+    /**
+     * Returns the elements sorted in descending order, computing them only if
+     * the collection changed since last time.
+     */
+    private Object[] sorted() {
+        if (sorted == null) {
+            compact();
+            sort(0, size-1);
+            sorted = Arrays.copyOf(buffer, size);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(sorted())).iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return Math.min(size, n);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(buffer, 0, size, null);
+        size = 0;
+        threshold = null;
+        sorted = null;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (Object elem : sorted()) {
+            if (obj == null ? elem == null : obj.equals(elem)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public Object[] toArray() {
+        return sorted().clone();
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order; the runtime type of the
+     * returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        final Object[] elems = sorted();
+        if (array.length < elems.length) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), elems.length);
+        }
+        System.arraycopy(elems, 0, array, 0, elems.length);
+        if (array.length > elems.length) {
+            array[elems.length] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof BufferedTopN) {
+            final BufferedTopN<?> that = (BufferedTopN<?>)obj;
+            return n == that.n && Arrays.equals(sorted(), that.sorted());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sorted());
+    }
+}
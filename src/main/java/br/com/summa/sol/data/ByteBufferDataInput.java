@@ -0,0 +1,126 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Adapter for reading primitive values directly from a byte buffer (typically a
+ * memory-mapped file), in the same format written by {@link java.io.DataOutputStream}.
+ *
+ * @author Einar Saukas
+ */
+final class ByteBufferDataInput implements DataInput {
+    private final ByteBuffer buffer;
+
+    ByteBufferDataInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    private ByteBuffer require(int length) throws EOFException {
+        if (buffer.remaining() < length) {
+            throw new EOFException();
+        }
+        return buffer;
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len).get(b, off, len);
+    }
+
+    @Override
+    public int skipBytes(int n) {
+        final int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return require(1).get() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return require(1).get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return require(1).get() & 0xFF;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return require(2).getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return require(2).getShort() & 0xFFFF;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return require(2).getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return require(4).getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return require(8).getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return require(4).getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return require(8).getDouble();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public String readLine() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+}
@@ -0,0 +1,671 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Thread-safe generic local cache with limited size.<br>
+ * <br>
+ * It automatically discards approximately least recently accessed entries so it
+ * never exceeds the maximum specified size (except temporarily, while concurrent
+ * writes are being applied).<br>
+ * <br>
+ * Entries are stored in a {@link ConcurrentHashMap}, and also linked in access
+ * order to choose which entries to discard. Unlike {@link LruCache}, reading an
+ * entry doesn't update this order immediately: it's only recorded into one of
+ * several small buffers, chosen according to the calling thread, and these
+ * buffers are applied in batches by whichever thread acquires a shared lock
+ * without waiting for it. If a buffer is full, the access is simply not recorded,
+ * thus reading an entry never blocks. Writing an entry acquires the shared lock,
+ * applying all buffered accesses before discarding any entry.<br>
+ * <br>
+ * Entries may also expire after a certain time since they were written (for the
+ * whole cache, or individually through {@link #put(Object, Object, long, TimeUnit)}),
+ * and/or since they were last read. An expired entry is never returned, as if it
+ * was already removed. Expired entries are discarded in batches by a
+ * {@link TimerWheel}, whenever the shared lock is acquired, thus without scanning
+ * the cache. Until then, they are still counted by {@link #size()}. Reading an
+ * expired entry removes it right away, but without acquiring the lock: the read
+ * is recorded like any other, and the entry is unlinked when buffered accesses
+ * are applied (or by the timer wheel, if the access was not recorded). Until
+ * then, it doesn't cause other entries to be discarded.<br>
+ * <br>
+ * Iterators are weakly consistent, as in {@link ConcurrentHashMap}, and they
+ * don't change the access order. The clock is only serialized if it's
+ * {@link Serializable}, otherwise a deserialized cache uses the system clock.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ *
+ * @author Einar Saukas
+ */
+public class ConcurrentLruCache<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int BUFFER_SIZE = 16;
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+    private static final int DRAIN_THRESHOLD = BUFFER_SIZE / 2;
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private final int maxEntries;
+    private final long expireAfterWrite;
+    private final long expireAfterAccess;
+    private transient Clock clock;
+    private transient ConcurrentHashMap<K, Node<K, V>> data;
+    private transient ReentrantLock lock;
+    private transient ReadBuffer[] buffers;
+    // least recently accessed entry follows the sentinel, guarded by lock
+    private transient Node<K, V> sentinel;
+    private transient int linked;
+    // guarded by lock
+    private transient TimerWheel<Node<K, V>> wheel;
+    private transient ObjLongConsumer<Node<K, V>> expiration;
+    private transient Set<Map.Entry<K, V>> entrySet;
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries, with
+     * one read buffer per available processor.
+     *
+     * @param maxEntries Maximum number of entries
+     */
+    public ConcurrentLruCache(int maxEntries) {
+        this(maxEntries, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries, where
+     * entries expire after the specified durations, according to the system clock.
+     *
+     * @param maxEntries Maximum number of entries
+     * @param expireAfterWrite Duration since an entry was written, or zero for none
+     * @param expireAfterAccess Duration since an entry was last read or written, or zero for none
+     * @param unit Time unit of both durations
+     */
+    public ConcurrentLruCache(int maxEntries, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        this(maxEntries, expireAfterWrite, expireAfterAccess, unit, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries, where
+     * entries expire after the specified durations, according to the specified clock.
+     *
+     * @param maxEntries Maximum number of entries
+     * @param expireAfterWrite Duration since an entry was written, or zero for none
+     * @param expireAfterAccess Duration since an entry was last read or written, or zero for none
+     * @param unit Time unit of both durations
+     * @param clock Clock providing the current time
+     */
+    public ConcurrentLruCache(int maxEntries, long expireAfterWrite, long expireAfterAccess, TimeUnit unit, Clock clock) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid maximum number of entries");
+        }
+        if (expireAfterWrite < 0 || expireAfterAccess < 0) {
+            throw new IllegalArgumentException("Invalid expiration");
+        }
+        this.maxEntries = maxEntries;
+        this.expireAfterWrite = unit.toMillis(expireAfterWrite);
+        this.expireAfterAccess = unit.toMillis(expireAfterAccess);
+        this.clock = clock;
+        init();
+    }
+
+    private void init() {
+        data = new ConcurrentHashMap<K, Node<K, V>>();
+        lock = new ReentrantLock();
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors()) {
+            stripes <<= 1;
+        }
+        buffers = new ReadBuffer[stripes];
+        for (int i = 0; i < stripes; i++) {
+            buffers[i] = new ReadBuffer();
+        }
+        sentinel = new Node<K, V>(null, null, NEVER, NEVER);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        linked = 0;
+        wheel = new TimerWheel<Node<K, V>>(clock.millis());
+        expiration = new ObjLongConsumer<Node<K, V>>() {
+            @Override
+            public void accept(Node<K, V> node, long now) {
+                if (node.expiration() > now) {
+                    // read after it was scheduled
+                    wheel.schedule(node, node.expiration());
+                } else {
+                    if (node.prev != null) {
+                        unlink(node);
+                    }
+                    data.remove(node.key, node);
+                }
+            }
+        };
+    }
+
+    private static long deadline(long now, long duration) {
+        return duration == 0 ? NEVER : duration < NEVER - now ? now + duration : NEVER;
+    }
+
+    private Node<K, V> newNode(K key, V value, long expireAfterWrite) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        if (expireAfterWrite == 0 && expireAfterAccess == 0) {
+            return new Node<K, V>(key, value, NEVER, NEVER);
+        }
+        final long now = clock.millis();
+        return new Node<K, V>(key, value, deadline(now, expireAfterWrite), deadline(now, expireAfterAccess));
+    }
+
+    private boolean expired(Node<K, V> node) {
+        return node.expiration() != NEVER && clock.millis() >= node.expiration();
+    }
+
+    private ReadBuffer buffer() {
+        long id = Thread.currentThread().getId();
+        id *= 0x9E3779B97F4A7C15L;
+        return buffers[(int)(id ^ (id >>> 32)) & (buffers.length - 1)];
+    }
+
+    /**
+     * Records an access to the specified entry, applying buffered accesses if
+     * there are enough of them and the lock is available.
+     */
+    private void afterRead(Node<K, V> node) {
+        final ReadBuffer buffer = buffer();
+        if (buffer.offer(node) >= DRAIN_THRESHOLD && lock.tryLock()) {
+            try {
+                drainBuffers();
+                expireEntries();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Replaces the specified entry (if any) by another one in access order, then
+     * discards expired and least recently accessed entries if needed.
+     */
+    private void afterWrite(K key, Node<K, V> removed, Node<K, V> added) {
+        lock.lock();
+        try {
+            drainBuffers();
+            if (removed != null) {
+                if (removed.prev != null) {
+                    unlink(removed);
+                }
+                wheel.deschedule(removed);
+            }
+            // a concurrent write may have already replaced this entry
+            if (added != null && data.get(key) == added) {
+                link(added);
+                if (added.expiration() != NEVER) {
+                    wheel.schedule(added, added.expiration());
+                }
+            }
+            expireEntries();
+            // entries removed by a read whose access was not recorded are still
+            // linked, so the map itself must also hold too many entries
+            while (linked > maxEntries && data.size() > maxEntries) {
+                final Node<K, V> eldest = sentinel.next;
+                unlink(eldest);
+                wheel.deschedule(eldest);
+                data.remove(eldest.key, eldest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the specified expired entry, unless it was already replaced.
+     */
+    private void expire(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            afterWrite(node.key, node, null);
+        }
+    }
+
+    /**
+     * Removes the specified expired entry without locking, unless it was already
+     * replaced, leaving it to be unlinked when buffered accesses are applied.
+     */
+    private void expireOnRead(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            node.removed = true;
+            afterRead(node);
+        }
+    }
+
+    // guarded by lock
+    private void drainBuffers() {
+        for (ReadBuffer buffer : buffers) {
+            buffer.drain(this);
+        }
+    }
+
+    // guarded by lock
+    private void expireEntries() {
+        if (wheel.size() > 0) {
+            wheel.advance(clock.millis(), expiration);
+        }
+    }
+
+    // guarded by lock
+    private void link(Node<K, V> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+        linked++;
+    }
+
+    // guarded by lock
+    private void unlink(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+        linked--;
+    }
+
+    // guarded by lock
+    private void applyRead(Node<K, V> node) {
+        if (node.removed) {
+            if (node.prev != null) {
+                unlink(node);
+            }
+            wheel.deschedule(node);
+        } else if (node.prev != null) {
+            unlink(node);
+            link(node);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        final Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.expiration() != NEVER) {
+            final long now = clock.millis();
+            if (now >= node.expiration()) {
+                expireOnRead(node);
+                return null;
+            }
+            if (expireAfterAccess != 0) {
+                node.accessExpiration = deadline(now, expireAfterAccess);
+            }
+        }
+        afterRead(node);
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        final Node<K, V> node = data.get(key);
+        return node != null && !expired(node);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return put(key, newNode(key, value, expireAfterWrite));
+    }
+
+    /**
+     * Associates the specified value with the specified key in this cache,
+     * expiring after the specified duration instead of the default duration
+     * since written. It may still expire earlier, if it's not read within the
+     * duration since last accessed.
+     *
+     * @param key Key of this entry
+     * @param value Value of this entry
+     * @param duration Duration since written until this entry expires
+     * @param unit Time unit of this duration
+     *
+     * @return The previous value associated with this key, or <code>null</code> if there was none
+     */
+    public V put(K key, V value, long duration, TimeUnit unit) {
+        if (unit.toMillis(duration) <= 0) {
+            throw new IllegalArgumentException("Invalid expiration");
+        }
+        return put(key, newNode(key, value, unit.toMillis(duration)));
+    }
+
+    private V put(K key, Node<K, V> node) {
+        final Node<K, V> old = data.put(key, node);
+        afterWrite(key, old, node);
+        return old != null && !expired(old) ? old.value : null;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        final Node<K, V> node = newNode(key, value, expireAfterWrite);
+        while (true) {
+            final Node<K, V> old = data.putIfAbsent(key, node);
+            if (old == null) {
+                afterWrite(key, null, node);
+                return null;
+            }
+            if (!expired(old)) {
+                afterRead(old);
+                return old.value;
+            }
+            if (data.replace(key, old, node)) {
+                afterWrite(key, old, node);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        final Node<K, V> node = newNode(key, value, expireAfterWrite);
+        while (true) {
+            final Node<K, V> old = data.get(key);
+            if (old == null) {
+                return null;
+            }
+            if (expired(old)) {
+                expire(old);
+                return null;
+            }
+            if (data.replace(key, old, node)) {
+                afterWrite(key, old, node);
+                return old.value;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        final Node<K, V> node = newNode(key, newValue, expireAfterWrite);
+        while (true) {
+            final Node<K, V> old = data.get(key);
+            if (old == null || expired(old) || !old.value.equals(oldValue)) {
+                return false;
+            }
+            if (data.replace(key, old, node)) {
+                afterWrite(key, old, node);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        final Node<K, V> old = data.remove(key);
+        if (old == null) {
+            return null;
+        }
+        afterWrite(old.key, old, null);
+        return expired(old) ? null : old.value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        while (true) {
+            final Node<K, V> old = data.get(key);
+            if (old == null || expired(old) || !old.value.equals(value)) {
+                return false;
+            }
+            if (data.remove(key, old)) {
+                afterWrite(old.key, old, null);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (K key : data.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Applies all buffered accesses and discards all expired entries right now,
+     * instead of waiting for the next write.
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            drainBuffers();
+            expireEntries();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of entries in this cache, including expired entries
+     * not discarded yet.
+     *
+     * @return The number of entries in this cache
+     */
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    /**
+     * Returns the maximum number of entries in this cache.
+     *
+     * @return The maximum number of entries
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    final Iterator<Node<K, V>> it = data.values().iterator();
+                    return new Iterator<Map.Entry<K, V>>() {
+                        private Node<K, V> next = advance();
+                        private Node<K, V> current = null;
+
+                        // skips expired entries
+                        private Node<K, V> advance() {
+                            while (it.hasNext()) {
+                                final Node<K, V> node = it.next();
+                                if (!expired(node)) {
+                                    return node;
+                                }
+                            }
+                            return null;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return next != null;
+                        }
+
+                        @Override
+                        public Map.Entry<K, V> next() {
+                            if (next == null) {
+                                throw new NoSuchElementException();
+                            }
+                            current = next;
+                            next = advance();
+                            return new SimpleImmutableEntry<K, V>(current.key, current.value);
+                        }
+
+                        @Override
+                        public void remove() {
+                            if (current == null) {
+                                throw new IllegalStateException();
+                            }
+                            ConcurrentLruCache.this.remove(current.key, current.value);
+                            current = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return data.size();
+                }
+
+                @Override
+                public void clear() {
+                    ConcurrentLruCache.this.clear();
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * Saves the clock (if serializable), then entries from least to most recently
+     * accessed, with their expiration times.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(clock instanceof Serializable ? clock : null);
+        lock.lock();
+        try {
+            drainBuffers();
+            // entries may still be removed by concurrent reads, so select them only once
+            final List<Node<K, V>> nodes = new ArrayList<Node<K, V>>(linked);
+            for (Node<K, V> node = sentinel.next; node != sentinel; node = node.next) {
+                if (!node.removed) {
+                    nodes.add(node);
+                }
+            }
+            out.writeInt(nodes.size());
+            for (Node<K, V> node : nodes) {
+                out.writeObject(node.key);
+                out.writeObject(node.value);
+                out.writeLong(node.writeExpiration);
+                out.writeLong(node.accessExpiration);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final Clock serialized = (Clock)in.readObject();
+        clock = serialized != null ? serialized : Clock.systemUTC();
+        init();
+        final int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            final K key = (K)in.readObject();
+            final V value = (V)in.readObject();
+            final long writeExpiration = in.readLong();
+            put(key, new Node<K, V>(key, value, writeExpiration, in.readLong()));
+        }
+    }
+
+    private static final class Node<K, V> extends TimerWheel.Timer {
+        private final K key;
+        private final V value;
+        private final long writeExpiration;
+        private volatile long accessExpiration;
+        // removed by a read, without the lock
+        private volatile boolean removed;
+        // guarded by lock
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        Node(K key, V value, long writeExpiration, long accessExpiration) {
+            this.key = key;
+            this.value = value;
+            this.writeExpiration = writeExpiration;
+            this.accessExpiration = accessExpiration;
+        }
+
+        long expiration() {
+            return Math.min(writeExpiration, accessExpiration);
+        }
+    }
+
+    /**
+     * Lossy ring buffer of accessed entries, written by many threads without
+     * locking, and read by the thread holding the lock.
+     */
+    private static final class ReadBuffer {
+        private final AtomicReferenceArray<Node<?, ?>> nodes = new AtomicReferenceArray<Node<?, ?>>(BUFFER_SIZE);
+        private final AtomicLong writes = new AtomicLong();
+        private final AtomicLong reads = new AtomicLong();
+
+        /**
+         * Records the specified entry unless this buffer is full or contended,
+         * and returns the number of pending entries.
+         */
+        int offer(Node<?, ?> node) {
+            final long head = reads.get();
+            final long tail = writes.get();
+            final int pending = (int)(tail - head);
+            if (pending < BUFFER_SIZE && writes.compareAndSet(tail, tail+1)) {
+                nodes.lazySet((int)tail & BUFFER_MASK, node);
+                return pending+1;
+            }
+            return pending;
+        }
+
+        // guarded by lock
+        @SuppressWarnings("unchecked")
+        <K, V> void drain(ConcurrentLruCache<K, V> cache) {
+            long head = reads.get();
+            final long tail = writes.get();
+            for (; head < tail; head++) {
+                final int i = (int)head & BUFFER_MASK;
+                final Node<K, V> node = (Node<K, V>)nodes.get(i);
+                if (node == null) {
+                    // not published yet
+                    break;
+                }
+                nodes.lazySet(i, null);
+                cache.applyRead(node);
+            }
+            reads.lazySet(head);
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe generic collection strictly limited to size <code>N</code>. If
+ * more than <code>N</code> elements are added, it will keep the greatest
+ * <code>N</code> elements only, discarding the others.<br>
+ * <br>
+ * Elements are added to one of several independent shards, chosen according to
+ * the calling thread, so that concurrent producers rarely compete for the same
+ * lock. Each shard is a {@link HeapTopN} limited to <code>N</code> elements.
+ * Whenever a shard gets full, its lowest element becomes a candidate for a shared
+ * admission threshold: since that shard alone already contains <code>N</code>
+ * elements not lower than it, any element not greater than this threshold can be
+ * rejected immediately, without acquiring any lock.<br>
+ * <br>
+ * Reading operations (such as {@link #iterator()}, {@link #toArray()} and
+ * {@link #size()}) lock all shards at once and merge their contents, thus
+ * working on a consistent snapshot sorted in descending order. Subsequent
+ * changes are not reflected in previously returned iterators.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> such that <code>x.compareTo(y) == 0</code>, the oldest element
+ * added by the same thread will be treated as greater. The relative order of
+ * equal elements added by different threads is unspecified.
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class ConcurrentTopN<E extends Comparable<E>> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    private final int n;
+    private final HeapTopN<E>[] shards;
+    private final ReentrantLock[] locks;
+    private final AtomicReference<E> threshold = new AtomicReference<E>();
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * using one shard per available processor.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     */
+    public ConcurrentTopN(int n) {
+        this(n, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * sized for the specified number of concurrent producers.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param concurrencyLevel Estimated number of threads adding elements at the same time
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentTopN(int n, int concurrencyLevel) {
+        int count = 1;
+        while (count < concurrencyLevel) {
+            count <<= 1;
+        }
+        this.n = n;
+        this.shards = (HeapTopN<E>[])new HeapTopN<?>[count];
+        this.locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new HeapTopN<E>(n);
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    private int shardIndex() {
+        final long id = Thread.currentThread().getId();
+        return (int)(id ^ (id >>> 32)) & (shards.length-1);
+    }
+
+    /**
+     * Raises the shared threshold to the lowest element of a full shard. It must
+     * be invoked while holding the lock of this shard, otherwise a concurrent
+     * {@link #clear()} could be followed by a stale threshold.
+     */
+    private void publishThreshold(E lowest) {
+        if (lowest == null) {
+            return;
+        }
+        while (true) {
+            final E current = threshold.get();
+            if ((current != null && current.compareTo(lowest) >= 0) ||
+                    threshold.compareAndSet(current, lowest)) {
+                return;
+            }
+        }
+    }
+
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (int i = locks.length-1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+
+    private Object[] snapshot() {
+        final HeapTopN<E> result = new HeapTopN<E>(n);
+        lockAll();
+        try {
+            for (HeapTopN<E> shard : shards) {
+                result.merge(shard);
+            }
+        } finally {
+            unlockAll();
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. If the collection
+     * already contains <code>N</code> elements, and the specified new element is
+     * not greater than any of them, it won't be added. Otherwise the specified
+     * element will be added and, if the collection already contained <code>N</code>
+     * elements, the lowest of them will be automatically removed.<br>
+     * <br>
+     * This method may be invoked by several threads at the same time.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if the element was admitted into this collection
+     * (even if it was later surpassed by elements added by other threads),
+     * <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        final E current = threshold.get();
+        if (current != null && current.compareTo(elem) >= 0) {
+            return false;
+        }
+        final int i = shardIndex();
+        locks[i].lock();
+        try {
+            if (!shards[i].add(elem)) {
+                return false;
+            }
+            publishThreshold(shards[i].threshold());
+        } finally {
+            locks[i].unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current admission threshold shared by all threads, such that
+     * any new element not greater than it will be rejected, or <code>null</code>
+     * if there's none yet. This threshold only increases over time (until the
+     * collection is cleared), and it may be lower than the lowest element of a
+     * full collection.
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return threshold.get();
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. This method may be invoked by several
+     * threads at the same time, and it doesn't acquire any lock. See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        final E current = threshold.get();
+        return n > 0 && (current == null || current.compareTo(elem) < 0);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into the shard of the
+     * calling thread. See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        final int i = shardIndex();
+        locks[i].lock();
+        try {
+            if (!shards[i].merge(other)) {
+                return false;
+            }
+            publishThreshold(shards[i].threshold());
+        } finally {
+            locks[i].unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Returns a read-only iterator over a snapshot of all top <code>N</code>
+     * elements in this collection, sorted in descending order.
+     *
+     * @return A read-only iterator over a snapshot of all top <code>N</code>
+     * elements in this collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(snapshot())).iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        int total = 0;
+        lockAll();
+        try {
+            for (HeapTopN<E> shard : shards) {
+                total += shard.size();
+            }
+        } finally {
+            unlockAll();
+        }
+        return Math.min(total, n);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards, except for elements concurrently added by other threads.
+     */
+    @Override
+    public void clear() {
+        lockAll();
+        try {
+            for (HeapTopN<E> shard : shards) {
+                shard.clear();
+            }
+            threshold.set(null);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     *
+     */
+    @Override
+    public boolean contains(Object obj) {
+        return Arrays.asList(snapshot()).contains(obj);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        return Arrays.asList(snapshot()).containsAll(coll);
+    }
+
+    /**
+     * Returns an array containing a snapshot of all top <code>N</code> elements
+     * in this collection, sorted in descending order.
+     *
+     * @return An array containing a snapshot of all top <code>N</code> elements
+     * in this collection, sorted in descending order
+     */
+    @Override
+    public Object[] toArray() {
+        return snapshot();
+    }
+
+    /**
+     * Returns an array containing a snapshot of all top <code>N</code> elements
+     * in this collection, sorted in descending order; the runtime type of the
+     * returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing a snapshot of all top <code>N</code> elements
+     * in this collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        final Object[] snapshot = snapshot();
+        if (array.length < snapshot.length) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), snapshot.length);
+        }
+        System.arraycopy(snapshot, 0, array, 0, snapshot.length);
+        if (array.length > snapshot.length) {
+            array[snapshot.length] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof ConcurrentTopN) {
+            final ConcurrentTopN<?> that = (ConcurrentTopN<?>)obj;
+            return n == that.n && Arrays.equals(snapshot(), that.snapshot());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(snapshot());
+    }
+}
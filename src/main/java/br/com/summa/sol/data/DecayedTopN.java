@@ -0,0 +1,403 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A generic collection strictly limited to size <code>N</code>, ranking elements
+ * by a score that decays exponentially over time. If more than <code>N</code>
+ * elements are added, it will keep the <code>N</code> elements with greatest
+ * decayed score only, discarding the others.<br>
+ * <br>
+ * The score of each element is provided by a scoring function when it's added,
+ * and then halves after each specified half-life. Since all scores decay at the
+ * same rate, the relative order of 2 elements never changes over time, thus it's
+ * enough to rank them by <code>log(score) + age * log(2) / halfLife</code>
+ * ("forward decay"). Therefore elements are never rescored, and this collection
+ * works exactly like a {@link HeapTopN} over decayed scores. Only positive scores
+ * are considered meaningful: elements with zero or negative score rank below all
+ * others.<br>
+ * <br>
+ * For 2 elements with equal decayed score, the oldest element in this collection
+ * will be treated as greater.<br>
+ * <br>
+ * The scoring function and the clock are only serialized if they're
+ * {@link Serializable} (for instance, a lambda expression cast to
+ * <code>ToDoubleFunction&lt;E&gt; &amp; Serializable</code>). Otherwise, a deserialized
+ * collection can still be read or merged into another one, but adding elements to
+ * it throws {@link IllegalStateException}, and its clock is the system clock.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * DecayedTopN<Article> trending = new DecayedTopN<Article>(10, 1, TimeUnit.HOURS, Article::getClicks);
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class DecayedTopN<E> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    private final HeapTopN<Decayed<E>> heap;
+    private final double rate;
+    private transient ToDoubleFunction<? super E> scorer;
+    private transient Clock clock;
+
+    /**
+     * Constructs an empty collection limited to <code>N</code> elements with greatest
+     * decayed score, according to the system clock.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param halfLife Time for a score to decay to half of its value
+     * @param unit Time unit of the half-life
+     * @param scorer Function providing the score of each element when added
+     */
+    public DecayedTopN(int n, long halfLife, TimeUnit unit, ToDoubleFunction<? super E> scorer) {
+        this(n, halfLife, unit, scorer, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs an empty collection limited to <code>N</code> elements with greatest
+     * decayed score, according to the specified clock.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param halfLife Time for a score to decay to half of its value
+     * @param unit Time unit of the half-life
+     * @param scorer Function providing the score of each element when added
+     * @param clock Clock providing the current time
+     */
+    public DecayedTopN(int n, long halfLife, TimeUnit unit, ToDoubleFunction<? super E> scorer, Clock clock) {
+        if (unit.toMillis(halfLife) <= 0) {
+            throw new IllegalArgumentException("Invalid half-life");
+        }
+        this.heap = new HeapTopN<Decayed<E>>(n);
+        this.rate = Math.log(2) / unit.toMillis(halfLife);
+        this.scorer = scorer;
+        this.clock = clock;
+    }
+
+    /**
+     * Attempts to add the specified element to the collection, at the current
+     * time. See {@link #add(Object, long)}.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        return add(elem, clock.millis());
+    }
+
+    /**
+     * Attempts to add the specified element to the collection, as if it was added
+     * at the specified time. If the collection already contains <code>N</code>
+     * elements, and the decayed score of the specified new element is not greater
+     * than any of them, it won't be added. Otherwise the specified element will be
+     * added and, if the collection already contained <code>N</code> elements, the
+     * one with lowest decayed score will be automatically removed.
+     *
+     * @param elem Element to be added
+     * @param time Time of this element, in milliseconds since epoch
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    public boolean add(E elem, long time) {
+        final double priority = priority(elem, time);
+        final Decayed<E> lowest = heap.threshold();
+        if (lowest != null && lowest.priority >= priority) {
+            return false;
+        }
+        return heap.add(new Decayed<E>(elem, priority));
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * at the current time, without actually adding it. See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        final Decayed<E> lowest = heap.threshold();
+        return lowest != null ? lowest.priority < priority(elem, clock.millis()) : heap.getN() > 0;
+    }
+
+    private double priority(E elem, long time) {
+        if (scorer == null) {
+            throw new IllegalStateException("Scoring function was not serialized");
+        }
+        final double score = scorer.applyAsDouble(elem);
+        return score > 0 ? Math.log(score) + time*rate : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection.
+     * If the specified collection is another {@link DecayedTopN} with the same
+     * half-life, elements keep their original decayed scores. Otherwise they will
+     * be added one at a time at the current time, as in {@link #addAll(Collection)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean merge(TopN<? extends E> other) {
+        if (other instanceof DecayedTopN && ((DecayedTopN<?>)other).rate == rate) {
+            return heap.merge((HeapTopN<Decayed<E>>)(HeapTopN<?>)((DecayedTopN<?>)other).heap);
+        }
+        return addAll(other);
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order of decayed score.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order of decayed score
+     */
+    @Override
+    public Iterator<E> iterator() {
+        final Iterator<Decayed<E>> it = heap.iterator();
+        return new Iterator<E>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return it.next().elem;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return heap.isEmpty();
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        heap.clear();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (E elem : this) {
+            if (obj == null ? elem == null : obj.equals(elem)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order of decayed score.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order of decayed score
+     */
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[heap.size()]);
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order of decayed score; the runtime type
+     * of the returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order of decayed score
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        final int size = heap.size();
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (E elem : this) {
+            array[i++] = (T)elem;
+        }
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(scorer instanceof Serializable ? scorer : null);
+        out.writeObject(clock instanceof Serializable ? clock : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        scorer = (ToDoubleFunction<? super E>)in.readObject();
+        final Clock serialized = (Clock)in.readObject();
+        clock = serialized != null ? serialized : Clock.systemUTC();
+    }
+
+    /**
+     * Element associated to its decayed score (in logarithmic scale).
+     */
+    private static final class Decayed<E> implements Comparable<Decayed<E>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final E elem;
+        private final double priority;
+
+        Decayed(E elem, double priority) {
+            this.elem = elem;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(Decayed<E> other) {
+            return Double.compare(priority, other.priority);
+        }
+    }
+}
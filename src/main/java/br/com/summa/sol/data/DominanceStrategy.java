@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+/**
+ * Strategy to compare elements according to multiple criteria, used by
+ * {@link Skyline}.
+ *
+ * @param <E> The type of elements evaluated by this strategy
+ *
+ * @author Einar Saukas
+ */
+public interface DominanceStrategy<E> {
+
+    /**
+     * Checks if the first element is at least as good as the second one according
+     * to every criterion. This relation must be reflexive and transitive.
+     *
+     * @param elem1 First element
+     * @param elem2 Second element
+     * @return <code>true</code> if the first element dominates the second one
+     */
+    boolean dominates(E elem1, E elem2);
+}
@@ -0,0 +1,52 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Strategy for encoding elements into a compact binary representation, used to
+ * write {@link TopN} collections into checkpoint files (see {@link TopNCheckpoints}).
+ * Each element must be read back exactly as it was written, and must be encoded
+ * into at least one byte.
+ *
+ * @param <E> The type of encoded elements
+ *
+ * @author Einar Saukas
+ */
+public interface ElementCodec<E> {
+
+    /**
+     * Writes the specified element.
+     *
+     * @param elem Element to be written
+     * @param out Output where the element is written
+     * @throws IOException If an I/O error occurs
+     */
+    void write(E elem, DataOutput out) throws IOException;
+
+    /**
+     * Reads an element previously written by {@link #write(Object, DataOutput)}.
+     *
+     * @param in Input from where the element is read
+     * @return The element read
+     * @throws IOException If an I/O error occurs
+     */
+    E read(DataInput in) throws IOException;
+}
@@ -0,0 +1,49 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+/**
+ * Policy to choose which entry should be discarded from a {@link BoundedCache}
+ * when it's full.
+ *
+ * @author Einar Saukas
+ */
+public enum EvictionPolicy {
+
+    /**
+     * Discards the least recently accessed entry. Each access moves the entry
+     * to the most recent end of a list, as in {@link LruCache}.
+     */
+    LRU,
+
+    /**
+     * Approximates {@link #LRU} with a "second chance" algorithm: each access
+     * only marks the entry as visited. A hand sweeps entries in circular order,
+     * unmarking visited entries until it finds one that is not visited, which is
+     * discarded. New entries are placed right behind the hand.
+     */
+    CLOCK,
+
+    /**
+     * Similar to {@link #CLOCK}, except that new entries are placed at the newest
+     * end and the hand moves from the oldest entries towards the newest ones, so
+     * surviving entries keep their position. Thus new entries accessed only once
+     * (such as those from a scan) are discarded quickly, before older entries
+     * visited again.
+     */
+    SIEVE
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.AbstractMap;
+
+/**
+ * Entries stored in a {@link BoundedCache}, in the order defined by an
+ * {@link EvictionPolicy}.<br>
+ * <br>
+ * Entries are kept in a circular doubly linked list, from oldest to newest.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ *
+ * @author Einar Saukas
+ */
+abstract class EvictionQueue<K, V> {
+    final Node<K, V> sentinel = new Node<K, V>(null, null);
+
+    EvictionQueue() {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    /**
+     * Creates an empty queue for the specified policy.
+     */
+    static <K, V> EvictionQueue<K, V> of(EvictionPolicy policy) {
+        switch (policy) {
+            case LRU:
+                return new LruQueue<K, V>();
+            case CLOCK:
+                return new ClockQueue<K, V>();
+            case SIEVE:
+                return new SieveQueue<K, V>();
+            default:
+                throw new IllegalArgumentException("Invalid policy");
+        }
+    }
+
+    static final class Node<K, V> extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        boolean visited = false;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            super(key, value);
+        }
+    }
+
+    static <K, V> void linkBefore(Node<K, V> node, Node<K, V> successor) {
+        node.prev = successor.prev;
+        node.next = successor;
+        successor.prev.next = node;
+        successor.prev = node;
+    }
+
+    /**
+     * Inserts a new entry.
+     */
+    void add(Node<K, V> node) {
+        linkBefore(node, sentinel);
+    }
+
+    /**
+     * Removes an entry, whether or not it was chosen by {@link #victim()}.
+     */
+    void remove(Node<K, V> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    /**
+     * Records an access to an entry.
+     */
+    abstract void access(Node<K, V> node);
+
+    /**
+     * Returns the next entry to be discarded, without removing it, or
+     * <code>null</code> if this queue is empty. This may update the state used to
+     * choose entries, so it should only be called when an entry will be discarded.
+     */
+    abstract Node<K, V> victim();
+
+    /**
+     * Returns the same entry as {@link #victim()}, without changing anything.
+     */
+    abstract Node<K, V> peekVictim();
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    /**
+     * Queue in access order, from least to most recently accessed.
+     */
+    private static final class LruQueue<K, V> extends EvictionQueue<K, V> {
+
+        @Override
+        void access(Node<K, V> node) {
+            super.remove(node);
+            add(node);
+        }
+
+        @Override
+        Node<K, V> victim() {
+            return sentinel.next != sentinel ? sentinel.next : null;
+        }
+
+        @Override
+        Node<K, V> peekVictim() {
+            return victim();
+        }
+    }
+
+    /**
+     * Queue in insertion order, swept from oldest to newest by a hand.
+     */
+    private static class SieveQueue<K, V> extends EvictionQueue<K, V> {
+        // next entry to be examined, or sentinel to restart from the oldest
+        Node<K, V> hand = sentinel;
+
+        @Override
+        void remove(Node<K, V> node) {
+            if (node == hand) {
+                hand = node.next;
+            }
+            super.remove(node);
+        }
+
+        @Override
+        void access(Node<K, V> node) {
+            node.visited = true;
+        }
+
+        @Override
+        Node<K, V> victim() {
+            if (sentinel.next == sentinel) {
+                return null;
+            }
+            Node<K, V> node = hand;
+            while (node == sentinel || node.visited) {
+                node.visited = false;
+                node = node.next;
+            }
+            hand = node;
+            return node;
+        }
+
+        @Override
+        Node<K, V> peekVictim() {
+            // the first unvisited entry from the hand, otherwise the first entry from
+            // the hand, which would be unvisited after a full sweep
+            Node<K, V> first = null;
+            Node<K, V> node = hand;
+            do {
+                if (node != sentinel) {
+                    if (!node.visited) {
+                        return node;
+                    }
+                    if (first == null) {
+                        first = node;
+                    }
+                }
+                node = node.next;
+            } while (node != hand);
+            return first;
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+            hand = sentinel;
+        }
+    }
+
+    /**
+     * Circular queue swept by a hand, inserting new entries right behind it.
+     */
+    private static final class ClockQueue<K, V> extends SieveQueue<K, V> {
+
+        @Override
+        void add(Node<K, V> node) {
+            linkBefore(node, hand);
+        }
+    }
+}
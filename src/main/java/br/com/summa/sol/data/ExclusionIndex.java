@@ -0,0 +1,167 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the elements stored in a collection, used to find which stored element
+ * is mutually exclusive with a new one without evaluating all of them.
+ *
+ * @param <E> The type of indexed elements
+ *
+ * @author Einar Saukas
+ */
+abstract class ExclusionIndex<E> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an index for the specified strategy, or returns <code>null</code>
+     * if this strategy cannot be indexed.
+     */
+    static <E> ExclusionIndex<E> of(ExclusionStrategy<E> strategy) {
+        if (strategy instanceof KeyExclusionStrategy) {
+            return new KeyIndex<E>((KeyExclusionStrategy<E, ?>)strategy);
+        }
+        if (strategy instanceof LshExclusionStrategy) {
+            return new LshIndex<E>((LshExclusionStrategy<E>)strategy);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the indexed element mutually exclusive with the specified element,
+     * or <code>null</code> if there's none. If there are many such elements,
+     * returns the greatest one.
+     */
+    abstract E find(E elem);
+
+    abstract void put(E elem);
+
+    abstract void remove(E elem);
+
+    abstract void clear();
+
+    /**
+     * Index of elements by key, such that elements with equal keys are mutually
+     * exclusive. There's at most one indexed element for each key.
+     */
+    private static final class KeyIndex<E> extends ExclusionIndex<E> {
+        private static final long serialVersionUID = 1L;
+
+        private final KeyExclusionStrategy<E, ?> strategy;
+        private final HashMap<Object, E> elems = new HashMap<Object, E>();
+
+        KeyIndex(KeyExclusionStrategy<E, ?> strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        E find(E elem) {
+            return elems.get(strategy.exclusionKey(elem));
+        }
+
+        @Override
+        void put(E elem) {
+            elems.put(strategy.exclusionKey(elem), elem);
+        }
+
+        @Override
+        void remove(E elem) {
+            final Object key = strategy.exclusionKey(elem);
+            if (elems.get(key) == elem) {
+                elems.remove(key);
+            }
+        }
+
+        @Override
+        void clear() {
+            elems.clear();
+        }
+    }
+
+    /**
+     * Index of elements by bucket keys, such that only elements sharing a bucket
+     * key are evaluated for mutual exclusion.
+     */
+    private static final class LshIndex<E> extends ExclusionIndex<E> {
+        private static final long serialVersionUID = 1L;
+
+        private final LshExclusionStrategy<E> strategy;
+        private final HashMap<Long, List<E>> buckets = new HashMap<Long, List<E>>();
+
+        LshIndex(LshExclusionStrategy<E> strategy) {
+            this.strategy = strategy;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        E find(E elem) {
+            E result = null;
+            for (long key : strategy.bucketKeys(elem)) {
+                final List<E> bucket = buckets.get(key);
+                if (bucket != null) {
+                    for (E other : bucket) {
+                        if (other != result && strategy.mutuallyExclusive(elem, other)
+                                && (result == null || ((Comparable<E>)other).compareTo(result) > 0)) {
+                            result = other;
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        void put(E elem) {
+            for (long key : strategy.bucketKeys(elem)) {
+                List<E> bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = new ArrayList<E>(2);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(elem);
+            }
+        }
+
+        @Override
+        void remove(E elem) {
+            for (long key : strategy.bucketKeys(elem)) {
+                final List<E> bucket = buckets.get(key);
+                if (bucket != null) {
+                    for (int i = 0; i < bucket.size(); i++) {
+                        if (bucket.get(i) == elem) {
+                            bucket.remove(i);
+                            break;
+                        }
+                    }
+                    if (bucket.isEmpty()) {
+                        buckets.remove(key);
+                    }
+                }
+            }
+        }
+
+        @Override
+        void clear() {
+            buckets.clear();
+        }
+    }
+}
@@ -0,0 +1,708 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A generic collection strictly limited to size <code>N</code>, storing most of
+ * its elements in temporary files. If more than <code>N</code> elements are added,
+ * it will keep the greatest <code>N</code> elements only, discarding the others.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> such that <code>x.compareTo(y) == 0</code>, the oldest element
+ * in this collection will be treated as greater.<br>
+ * <br>
+ * New elements are appended into an in-memory buffer of fixed capacity. Whenever
+ * this buffer is full, it's sorted and its greatest elements (up to <code>N</code>)
+ * are written as a sorted "run" into a temporary file, using the specified
+ * {@link ElementCodec}. Once any run contains <code>N</code> elements, the lowest
+ * of them becomes a threshold that any new element must exceed in order to be
+ * buffered, so later runs only keep elements that may still belong to the result.
+ * Whenever there are too many runs, they are merged into a single run, which also
+ * tightens this threshold. Reading the result merges all runs and the buffer lazily
+ * (see {@link TopNs#merge(Iterable, int)}), so only a few elements per run are
+ * kept in memory at any time. It's intended for very large values of <code>N</code>,
+ * when <code>N</code> elements wouldn't fit comfortably in memory.<br>
+ * <br>
+ * Notice that {@link #add(Comparable)} returns <code>true</code> whenever an
+ * element is buffered, even if it will be later discarded because there were
+ * already <code>N</code> greater elements in this collection. Also iterators read
+ * from temporary files, thus they may throw {@link UncheckedIOException}, and they
+ * are not valid anymore after this collection changes. Each iterator releases its
+ * files as soon as it returns its last element. An iterator abandoned before that
+ * keeps its files open until it's closed (iterators returned by {@link #iterator()}
+ * are also {@link Closeable}), or until this collection is closed.<br>
+ * <br>
+ * This collection must be closed after use, in order to delete its temporary
+ * files. Run files still being read by an open iterator are only deleted when
+ * that iterator is closed. Typical usage:
+ *
+ * <pre>{@code
+ * try (ExternalTopN<Score> topN = new ExternalTopN<Score>(50000000, 1000000, codec)) {
+ *     for (Score score : scores) {
+ *         topN.add(score);
+ *     }
+ *     for (Score score : topN) {
+ *         // scores sorted in descending order
+ *     }
+ * }
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class ExternalTopN<E extends Comparable<E>> implements TopN<E>, Closeable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAX_RUNS = 64;
+    private static final int BUFFER_SIZE = 65536;
+
+    private final int n;
+    private final ElementCodec<E> codec;
+    private final File directory;
+    private final Object[] buffer;
+    private final List<Run> runs = new ArrayList<Run>();
+    private final List<RunIterator> openIterators = new ArrayList<RunIterator>();
+    private int size = 0;
+    private E threshold = null;
+    private boolean sorted = true;
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * storing temporary files in the default temporary-file directory.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param capacity Maximum number of elements kept in memory before writing a run
+     * @param codec Codec used to write and read elements in temporary files
+     */
+    public ExternalTopN(int n, int capacity, ElementCodec<E> codec) {
+        this(n, capacity, codec, null);
+    }
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements,
+     * storing temporary files in the specified directory.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param capacity Maximum number of elements kept in memory before writing a run
+     * @param codec Codec used to write and read elements in temporary files
+     * @param directory Directory for temporary files, or <code>null</code> for the
+     * default temporary-file directory
+     */
+    public ExternalTopN(int n, int capacity, ElementCodec<E> codec, File directory) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+        this.n = n;
+        this.codec = codec;
+        this.directory = directory;
+        this.buffer = new Object[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elem(int i) {
+        return (E)buffer[i];
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. If the collection
+     * already contains <code>N</code> elements greater than the specified new
+     * element, it may be discarded immediately. Otherwise the specified element will
+     * be buffered, and the buffer may be written into a temporary file.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if the element was buffered, <code>false</code> otherwise
+     *
+     * @throws UncheckedIOException If an I/O error occurs while writing a temporary file
+     */
+    @Override
+    public boolean add(E elem) {
+        if (!wouldAccept(elem)) {
+            return false;
+        }
+        if (size == buffer.length) {
+            spill();
+        }
+        buffer[size++] = elem;
+        sorted = false;
+        return true;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. This operation takes a single comparison.
+     * See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        return n > 0 && (threshold == null || threshold.compareTo(elem) < 0);
+    }
+
+    /**
+     * Returns the lowest element of <code>N</code> elements already known to be
+     * greater than any new element that could still be discarded, thus the element
+     * that any new element must be greater than in order to be buffered, or
+     * <code>null</code> if there's none yet. This threshold may be lower than the
+     * lowest element in this collection, but never greater.
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return threshold;
+    }
+
+    /**
+     * Sorts the buffer in descending order, keeping only elements above the current
+     * threshold, up to <code>N</code> elements. Sorting is stable, so equal elements
+     * remain in insertion order. If <code>N</code> elements are kept, the lowest of
+     * them becomes the new threshold.
+     */
+    private void sortBuffer() {
+        if (!sorted) {
+            Arrays.sort(buffer, 0, size, Collections.reverseOrder());
+            int count = Math.min(size, n);
+            if (threshold != null) {
+                while (count > 0 && threshold.compareTo(elem(count-1)) >= 0) {
+                    count--;
+                }
+            }
+            Arrays.fill(buffer, count, size, null);
+            size = count;
+            sorted = true;
+            if (count == n) {
+                threshold = elem(count-1);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Iterator<E> bufferIterator() {
+        return ((List<E>)(List<?>)Arrays.asList(buffer)).subList(0, size).iterator();
+    }
+
+    /**
+     * Writes the buffer as a new run, then merges all runs if there are too many.
+     */
+    private void spill() {
+        sortBuffer();
+        try {
+            final Run run = new Run(createFile());
+            run.write(bufferIterator());
+            runs.add(run);
+            Arrays.fill(buffer, 0, size, null);
+            size = 0;
+            if (runs.size() >= MAX_RUNS) {
+                final Run merged = new Run(createFile());
+                final ResultIterator it = runIterators(runs.size());
+                try {
+                    merged.write(it);
+                } finally {
+                    it.close();
+                }
+                for (Run old : runs) {
+                    old.delete();
+                }
+                runs.clear();
+                runs.add(merged);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private File createFile() throws IOException {
+        return File.createTempFile("topn", ".run", directory);
+    }
+
+    /**
+     * Returns a merged iterator over the specified number of runs, plus the sorted
+     * buffer if all runs are included.
+     */
+    private ResultIterator runIterators(int count) throws IOException {
+        final List<RunIterator> children = new ArrayList<RunIterator>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                children.add(runs.get(i).iterator());
+            }
+        } catch (IOException e) {
+            for (RunIterator it : children) {
+                it.close();
+            }
+            throw e;
+        }
+        final List<Iterator<E>> iterators = new ArrayList<Iterator<E>>(children);
+        if (count == runs.size()) {
+            sortBuffer();
+            iterators.add(bufferIterator());
+        }
+        return new ResultIterator(new HeapMergingIterator<E>(iterators, n), children);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if at least one element was buffered, <code>false</code> otherwise
+     *
+     * @throws UncheckedIOException If an I/O error occurs while writing a temporary file
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection.
+     * Since elements are buffered anyway, this is the same as adding them in
+     * descending order. See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if at least one element was buffered, <code>false</code> otherwise
+     *
+     * @throws UncheckedIOException If an I/O error occurs while writing a temporary file
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        boolean changed = false;
+        for (E elem : other) {
+            if (!add(elem)) {
+                break;
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order. Elements are read lazily
+     * from temporary files, which are closed after the last element. The
+     * returned iterator is also {@link Closeable}, so that it can release its
+     * files when abandoned earlier.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order
+     *
+     * @throws UncheckedIOException If an I/O error occurs while reading a temporary file
+     */
+    @Override
+    public Iterator<E> iterator() {
+        try {
+            return runIterators(runs.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        sortBuffer();
+        long total = size;
+        for (Run run : runs) {
+            total += run.count;
+        }
+        return (int)Math.min(n, total);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && runs.isEmpty();
+    }
+
+    /**
+     * Removes all elements from this collection, deleting all its temporary files.
+     * The collection will be empty afterwards.
+     */
+    @Override
+    public void clear() {
+        // files of runs still being read are deleted when their readers are closed
+        for (Run run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        Arrays.fill(buffer, 0, size, null);
+        size = 0;
+        threshold = null;
+        sorted = true;
+    }
+
+    /**
+     * Closes all iterators still reading temporary files, then deletes all
+     * temporary files from this collection, which will be empty afterwards.
+     * See {@link #clear()}.
+     */
+    @Override
+    public void close() {
+        for (RunIterator it : new ArrayList<RunIterator>(openIterators)) {
+            it.close();
+        }
+        clear();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.<br>
+     * <br>
+     * This operation reads all temporary files.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     *
+     * @throws UncheckedIOException If an I/O error occurs while reading a temporary file
+     */
+    @Override
+    public boolean contains(Object obj) {
+        final ResultIterator it = (ResultIterator)iterator();
+        try {
+            while (it.hasNext()) {
+                final E elem = it.next();
+                if (obj == null ? elem == null : obj.equals(elem)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            it.close();
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     *
+     * @throws UncheckedIOException If an I/O error occurs while reading a temporary file
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     *
+     * @throws UncheckedIOException If an I/O error occurs while reading a temporary file
+     */
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[size()]);
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order; the runtime type of the
+     * returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     *
+     * @throws UncheckedIOException If an I/O error occurs while reading a temporary file
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        final int size = size();
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (E elem : this) {
+            array[i++] = (T)elem;
+        }
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Temporary files cannot be serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        throw new NotSerializableException(getClass().getName());
+    }
+
+    /**
+     * Temporary file containing elements sorted in descending order.
+     */
+    private final class Run {
+        private final File file;
+        private int count = 0;
+        private int readers = 0;
+        private boolean deleted = false;
+
+        Run(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Writes the specified elements into this run, updating the threshold
+         * if there are at least <code>N</code> of them.
+         */
+        void write(Iterator<? extends E> it) throws IOException {
+            E last = null;
+            try {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(file), BUFFER_SIZE));
+                try {
+                    while (it.hasNext()) {
+                        last = it.next();
+                        codec.write(last, out);
+                        count++;
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                delete();
+                throw e;
+            }
+            if (count == n && (threshold == null || threshold.compareTo(last) < 0)) {
+                threshold = last;
+            }
+        }
+
+        RunIterator iterator() throws IOException {
+            return new RunIterator(this);
+        }
+
+        /**
+         * Deletes this run, as soon as no iterator is reading it.
+         */
+        void delete() {
+            deleted = true;
+            if (readers == 0) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Read-only iterator over the merged runs, which closes all of them as soon
+     * as it returns its last element, even if some runs were not fully read.
+     */
+    private final class ResultIterator implements Iterator<E>, Closeable {
+        private final Iterator<E> merged;
+        private final List<RunIterator> children;
+        private boolean closed = false;
+
+        ResultIterator(Iterator<E> merged, List<RunIterator> children) {
+            this.merged = merged;
+            this.children = children;
+            if (!merged.hasNext()) {
+                close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && merged.hasNext();
+        }
+
+        @Override
+        public E next() {
+            if (closed) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final E elem = merged.next();
+                if (!merged.hasNext()) {
+                    close();
+                }
+                return elem;
+            } catch (UncheckedIOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            for (RunIterator it : children) {
+                it.close();
+            }
+        }
+    }
+
+    /**
+     * Read-only iterator over the elements of a run, which closes its file after
+     * reading the last element.
+     */
+    private final class RunIterator implements Iterator<E>, Closeable {
+        private final Run run;
+        private final DataInputStream in;
+        private int remaining;
+        private boolean closed = false;
+
+        RunIterator(Run run) throws IOException {
+            this.run = run;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file), BUFFER_SIZE));
+            this.remaining = run.count;
+            run.readers++;
+            openIterators.add(this);
+            if (remaining == 0) {
+                close();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public E next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final E elem = codec.read(in);
+                if (--remaining == 0) {
+                    close();
+                }
+                return elem;
+            } catch (IOException e) {
+                remaining = 0;
+                close();
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remaining = 0;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            openIterators.remove(this);
+            if (--run.readers == 0 && run.deleted) {
+                run.file.delete();
+            }
+        }
+    }
+}
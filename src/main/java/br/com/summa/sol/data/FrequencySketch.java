@@ -0,0 +1,154 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.Arrays;
+
+/**
+ * Approximate counter of how often each key was recently seen, using a
+ * Count-Min sketch of 4-bit counters.<br>
+ * <br>
+ * Counters are packed 16 per <code>long</code>, in a table with about one
+ * <code>long</code> per expected key. The table starts small and grows with the
+ * number of keys actually expected, up to the specified maximum, keeping all
+ * estimates. Each key is mapped to 4 counters in different table positions, and
+ * its estimated frequency is the lowest of them (thus never lower than the exact
+ * count, up to 15). After a sample of about 10
+ * increments per expected key, all counters are halved, so the sketch "forgets"
+ * old accesses and follows changes in popularity.
+ *
+ * @author Einar Saukas
+ */
+final class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long ONE_MASK = 0x1111111111111111L;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maximum;
+    private long[] table;
+    private int sampleSize;
+    private int size = 0;
+
+    /**
+     * Constructs an empty sketch for up to the specified number of keys.
+     */
+    FrequencySketch(int maximum) {
+        this.maximum = maximum;
+        resize(Math.min(maximum, INITIAL_CAPACITY));
+    }
+
+    /**
+     * Grows the table, if needed, so it's sized for the specified number of keys
+     * (but never for more than the maximum). Since the table size doubles each
+     * time, it only grows <code>O(log N)</code> times.
+     */
+    void ensureCapacity(int expected) {
+        final int capacity = Math.min(expected, maximum);
+        if (capacity > table.length && table.length < 1 << 30) {
+            resize(capacity);
+        }
+    }
+
+    private void resize(int capacity) {
+        int length = 1;
+        while (length < capacity && length < 1 << 30) {
+            length <<= 1;
+        }
+        final long[] old = table;
+        table = new long[length];
+        sampleSize = (int)Math.min(10L * Math.min(length, maximum), Integer.MAX_VALUE);
+        if (old != null) {
+            // positions only gain higher bits, so repeating the old table keeps all estimates
+            for (int i = 0; i < length; i += old.length) {
+                System.arraycopy(old, 0, table, i, old.length);
+            }
+            // each copy counts as a sample, so aging still compensates for odd counters
+            size = (int)Math.min((long)size * (length / old.length), sampleSize);
+        }
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int)h & (table.length - 1);
+    }
+
+    /**
+     * Returns the estimated number of recent occurrences of the specified key,
+     * from 0 to 15.
+     */
+    int frequency(Object key) {
+        final int hash = spread(key.hashCode());
+        // each hash function uses a different counter within each long
+        final int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            final int offset = (start + i) << 2;
+            final int count = (int)((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Counts one occurrence of the specified key, aging all counters if the
+     * sample size is reached.
+     */
+    void increment(Object key) {
+        final int hash = spread(key.hashCode());
+        final int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            final int index = indexOf(hash, i);
+            final int offset = (start + i) << 2;
+            final long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves all counters, compensating the sample size for truncated odd counters.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    void clear() {
+        Arrays.fill(table, 0L);
+        size = 0;
+    }
+}
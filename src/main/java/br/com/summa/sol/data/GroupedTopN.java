@@ -0,0 +1,292 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A collection of groups identified by key, each group limited to size
+ * <code>N</code>. If more than <code>N</code> elements are added to the same group,
+ * it will keep the greatest <code>N</code> elements only, discarding the others.
+ * Optionally, the number of groups may be also limited, such that adding an element
+ * to a new group will discard the least recently used group if necessary.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> in the same group such that <code>x.compareTo(y) == 0</code>, the
+ * oldest element will be treated as greater.<br>
+ * <br>
+ * Instead of keeping a separate {@link TopN} instance per group, this structure
+ * stores the elements of all groups in a single shared array, split in blocks of
+ * <code>N</code> positions. Each block is kept sorted in descending order, so an
+ * element that is not greater than the lowest element of a full group is rejected
+ * after a single comparison, and reading a group doesn't require sorting. Blocks of
+ * removed groups are reused for new groups. It's intended for very large numbers of
+ * small groups, such as the "top 20" elements per category.<br>
+ * <br>
+ * Notice that every group reserves a full block of <code>N</code> positions as soon
+ * as it's created, even if it only ever receives a single element. Therefore memory
+ * usage is proportional to <code>N</code> times the number of groups, and the total
+ * (<code>N</code> times the number of groups stored simultaneously) cannot exceed the
+ * maximum array size. Typical usage:
+ *
+ * <pre>{@code
+ * GroupedTopN<Category, Product> best = new GroupedTopN<Category, Product>(20, 100000);
+ * best.add(product.getCategory(), product);
+ * List<Product> top = best.get(category);
+ * }</pre>
+ *
+ * @param <K> The type of group keys
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class GroupedTopN<K, E extends Comparable<E>> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_BLOCKS = 16;
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int n;
+    private final int maxGroups;
+    private final LinkedHashMap<K, Integer> blocks;
+    private Object[] elems;
+    private int[] sizes;
+    private int[] free;
+    private int freeCount = 0;
+    private int usedBlocks = 0;
+
+    /**
+     * Constructs an empty collection of groups, each one limited to (greatest)
+     * <code>N</code> elements, without limiting the number of groups.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in each group
+     */
+    public GroupedTopN(int n) {
+        this(n, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs an empty collection of groups, each one limited to (greatest)
+     * <code>N</code> elements, keeping at most the specified number of groups.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in each group
+     * @param maxGroups Strict limit on the number of groups, discarding the least
+     * recently used group when exceeded
+     * @throws IllegalArgumentException If a limit is not positive, or <code>N</code>
+     * exceeds the maximum array size
+     */
+    public GroupedTopN(int n, int maxGroups) {
+        if (n <= 0 || maxGroups <= 0 || n > MAX_ARRAY_SIZE) {
+            throw new IllegalArgumentException("Invalid limits");
+        }
+        this.n = n;
+        this.maxGroups = maxGroups;
+        this.blocks = new LinkedHashMap<K, Integer>(16, 0.75f, true);
+        final int initial = Math.min(Math.min(maxGroups, INITIAL_BLOCKS), maxBlocks());
+        this.elems = new Object[initial*n];
+        this.sizes = new int[initial];
+        this.free = new int[initial];
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elem(int i) {
+        return (E)elems[i];
+    }
+
+    // blocks are never allocated beyond this limit, so block*n never overflows
+    private int maxBlocks() {
+        return MAX_ARRAY_SIZE / n;
+    }
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (usedBlocks == sizes.length) {
+            final int capacity = (int)Math.min(Math.min(maxGroups, maxBlocks()), Math.max(sizes.length*2L, 1));
+            if (capacity == sizes.length) {
+                throw new IllegalStateException("Too many groups of " + n + " elements: " + usedBlocks);
+            }
+            elems = Arrays.copyOf(elems, capacity*n);
+            sizes = Arrays.copyOf(sizes, capacity);
+            free = Arrays.copyOf(free, capacity);
+        }
+        return usedBlocks++;
+    }
+
+    private void release(int block) {
+        Arrays.fill(elems, block*n, block*n + sizes[block], null);
+        sizes[block] = 0;
+        free[freeCount++] = block;
+    }
+
+    /**
+     * Attempts to add the specified element to the specified group. If this group
+     * already contains <code>N</code> elements, and the specified new element is
+     * not greater than any of them, it won't be added. Otherwise the specified
+     * element will be added and, if this group already contained <code>N</code>
+     * elements, the lowest of them will be automatically removed. If this group
+     * didn't exist yet and the number of groups is already at its limit, the least
+     * recently used group will be automatically removed.
+     *
+     * @param key Key of the group
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     * @throws IllegalStateException If a new group would need more than the maximum
+     * array size
+     */
+    public boolean add(K key, E elem) {
+        Integer block = blocks.get(key);
+        if (block == null) {
+            if (blocks.size() >= maxGroups) {
+                final Iterator<Integer> eldest = blocks.values().iterator();
+                release(eldest.next());
+                eldest.remove();
+            }
+            block = allocate();
+            blocks.put(key, block);
+        }
+        final int base = block*n;
+        int size = sizes[block];
+        if (size == n) {
+            if (elem(base+n-1).compareTo(elem) >= 0) {
+                return false;
+            }
+            size--;
+        }
+        // find position after all elements not lower than the new one
+        int pos = base+size;
+        while (pos > base && elem(pos-1).compareTo(elem) < 0) {
+            pos--;
+        }
+        System.arraycopy(elems, pos, elems, pos+1, base+size-pos);
+        elems[pos] = elem;
+        sizes[block] = size+1;
+        return true;
+    }
+
+    /**
+     * Returns a read-only list containing all elements in the specified group,
+     * sorted in descending order. The returned list is a snapshot, that won't
+     * reflect later changes in this collection.
+     *
+     * @param key Key of the group
+     *
+     * @return A read-only list containing all elements in the specified group, sorted
+     * in descending order, or an empty list if this group doesn't exist
+     */
+    @SuppressWarnings("unchecked")
+    public List<E> get(K key) {
+        final Integer block = blocks.get(key);
+        if (block == null) {
+            return Collections.emptyList();
+        }
+        final int base = block*n;
+        return Collections.unmodifiableList(
+                (List<E>)(List<?>)Arrays.asList(Arrays.copyOfRange(elems, base, base+sizes[block])));
+    }
+
+    /**
+     * Returns the number of elements in the specified group.
+     *
+     * @param key Key of the group
+     *
+     * @return The number of elements in the specified group
+     */
+    public int size(K key) {
+        final Integer block = blocks.get(key);
+        return block != null ? sizes[block] : 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the specified group exists.
+     *
+     * @param key Key of the group
+     *
+     * @return <code>true</code> if the specified group exists
+     */
+    public boolean containsKey(K key) {
+        return blocks.containsKey(key);
+    }
+
+    /**
+     * Returns a read-only set containing the keys of all groups, from least
+     * recently used to most recently used.
+     *
+     * @return A read-only set containing the keys of all groups
+     */
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(blocks.keySet());
+    }
+
+    /**
+     * Returns the number of groups.
+     *
+     * @return The number of groups
+     */
+    public int groups() {
+        return blocks.size();
+    }
+
+    /**
+     * Returns <code>true</code> if there are no groups.
+     *
+     * @return <code>true</code> if there are no groups
+     */
+    public boolean isEmpty() {
+        return blocks.isEmpty();
+    }
+
+    /**
+     * Removes the specified group.
+     *
+     * @param key Key of the group
+     *
+     * @return <code>true</code> if this group existed
+     */
+    public boolean remove(K key) {
+        final Integer block = blocks.remove(key);
+        if (block == null) {
+            return false;
+        }
+        release(block);
+        return true;
+    }
+
+    /**
+     * Removes all groups. The collection will be empty afterwards.
+     */
+    public void clear() {
+        for (Map.Entry<K, Integer> entry : blocks.entrySet()) {
+            final int block = entry.getValue();
+            Arrays.fill(elems, block*n, block*n + sizes[block], null);
+            sizes[block] = 0;
+        }
+        blocks.clear();
+        freeCount = 0;
+        usedBlocks = 0;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only iterator that merges any number of iterators sorted in descending
+ * order into a single sequence sorted in descending order, up to a maximum number
+ * of elements. For equal elements, the ones from earlier iterators come first.<br>
+ * <br>
+ * The next element from each iterator is kept in a binary heap, so creating this
+ * iterator takes <code>O(k)</code> operations for <code>k</code> iterators, and
+ * each subsequent element takes <code>O(log k)</code> comparisons. Once the
+ * maximum number of elements is returned, no other element is read from the
+ * iterators.
+ *
+ * @param <E> The type of elements returned by this iterator
+ *
+ * @author Einar Saukas
+ */
+class HeapMergingIterator<E extends Comparable<E>> implements Iterator<E> {
+    private final List<Iterator<? extends E>> iterators;
+    private final Object[] heads;
+    private final int[] heap;
+    private int size = 0;
+    private int remaining;
+
+    HeapMergingIterator(Iterable<? extends Iterator<? extends E>> sources, int limit) {
+        this.iterators = new ArrayList<Iterator<? extends E>>();
+        for (Iterator<? extends E> it : sources) {
+            iterators.add(it);
+        }
+        this.heads = new Object[iterators.size()];
+        this.heap = new int[iterators.size()];
+        this.remaining = limit;
+        for (int i = 0; i < heads.length && limit > 0; i++) {
+            if (iterators.get(i).hasNext()) {
+                heads[i] = iterators.get(i).next();
+                heap[size++] = i;
+            }
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E head(int source) {
+        return (E)heads[source];
+    }
+
+    // true if the head of source at heap position i should come before position j
+    private boolean before(int i, int j) {
+        final int cmp = head(heap[i]).compareTo(head(heap[j]));
+        return cmp > 0 || (cmp == 0 && heap[i] < heap[j]);
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2*i+1;
+            if (child >= size) {
+                break;
+            }
+            if (child+1 < size && before(child+1, child)) {
+                child++;
+            }
+            if (!before(child, i)) {
+                break;
+            }
+            final int source = heap[i];
+            heap[i] = heap[child];
+            heap[child] = source;
+            i = child;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return size > 0 && remaining > 0;
+    }
+
+    @Override
+    public E next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final int source = heap[0];
+        final E result = head(source);
+        if (--remaining == 0) {
+            // limit reached, so the next element from this source is never needed
+            heads[source] = null;
+            return result;
+        }
+        final Iterator<? extends E> it = iterators.get(source);
+        if (it.hasNext()) {
+            heads[source] = it.next();
+        } else {
+            heads[source] = null;
+            heap[0] = heap[--size];
+        }
+        siftDown(0);
+        return result;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A generic collection strictly limited to size <code>N</code>. If more than
+ * <code>N</code> elements are added, it will keep the greatest <code>N</code>
+ * elements only, discarding the others.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> such that <code>x.compareTo(y) == 0</code>, the oldest element
+ * in this collection will be treated as greater.<br>
+ * <br>
+ * This collection keeps its elements in a preallocated array organized as a
+ * binary min-heap, so the lowest stored element is always at the root. An element
+ * that is not greater than the root is rejected after a single comparison, and an
+ * admitted element costs <code>O(log N)</code> comparisons without allocating any
+ * node. It's intended for high-volume streams where most elements are discarded.
+ * Sorting only happens when elements are read, through {@link #iterator()} or
+ * {@link #toArray()}.
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class HeapTopN<E extends Comparable<E>> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    private final int n;
+    private final Object[] heap;
+    private final long[] order;
+    private int size = 0;
+    private long counter = 0;
+    private transient Object[] sorted = null;
+    private transient ThresholdListener<? super E> thresholdListener = null;
+    private transient E lastThreshold = null;
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     */
+    public HeapTopN(int n) {
+        this.n = n;
+        this.heap = new Object[n];
+        this.order = new long[n];
+    }
+
+    int getN() {
+        return n;
+    }
+
+    /**
+     * Defines a listener to be notified whenever the value returned by
+     * {@link #threshold()} changes. This listener is not serialized.
+     *
+     * @param listener Listener to be notified, or <code>null</code> for none
+     */
+    public void setThresholdListener(ThresholdListener<? super E> listener) {
+        this.thresholdListener = listener;
+        this.lastThreshold = threshold();
+    }
+
+    private void thresholdChanged() {
+        if (thresholdListener != null) {
+            final E current = threshold();
+            if (current != lastThreshold) {
+                lastThreshold = current;
+                thresholdListener.thresholdChanged(current);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private E elem(int i) {
+        return (E)heap[i];
+    }
+
+    // true if element at position i should be discarded before element at position j
+    private boolean lower(int i, int j) {
+        final int cmp = elem(i).compareTo(elem(j));
+        return cmp < 0 || (cmp == 0 && order[i] > order[j]);
+    }
+
+    private void swap(int i, int j) {
+        final Object elem = heap[i];
+        heap[i] = heap[j];
+        heap[j] = elem;
+        final long seq = order[i];
+        order[i] = order[j];
+        order[j] = seq;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i-1) >>> 1;
+            if (!lower(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int limit) {
+        while (true) {
+            int child = 2*i+1;
+            if (child >= limit) {
+                break;
+            }
+            if (child+1 < limit && lower(child+1, child)) {
+                child++;
+            }
+            if (!lower(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. If the collection
+     * already contains <code>N</code> elements, and the specified new element is
+     * not greater than any of them, it won't be added. Otherwise the specified
+     * element will be added and, if the collection already contained <code>N</code>
+     * elements, the lowest of them will be automatically removed.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        if (size < n) {
+            heap[size] = elem;
+            order[size] = counter++;
+            siftUp(size++);
+        } else if (n > 0 && elem(0).compareTo(elem) < 0) {
+            heap[0] = elem;
+            order[0] = counter++;
+            siftDown(0, size);
+        } else {
+            return false;
+        }
+        sorted = null;
+        thresholdChanged();
+        return true;
+    }
+
+    /**
+     * Returns the lowest element in this collection if it's already full, thus
+     * the element that any new element must be greater than in order to be added,
+     * or <code>null</code> otherwise (so any element would be added).
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return size > 0 && size == n ? elem(0) : null;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. This operation takes a single comparison.
+     * See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>true</code> if the specified element would be added
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        return size < n || (n > 0 && elem(0).compareTo(elem) < 0);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection,
+     * rebuilding the heap directly from the sorted contents of both collections.
+     * See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        final Object[] merged = new Object[(int)Math.min(n, (long)size + other.size())];
+        final MergingIterator<E> it = new MergingIterator<E>(iterator(), other.iterator());
+        boolean changed = false;
+        int count = 0;
+        while (count < merged.length && it.hasNext()) {
+            merged[count++] = it.next();
+            changed = changed || it.lastFromSecond();
+        }
+        if (changed) {
+            // an array sorted in ascending order is already a valid min-heap
+            for (int i = 0, j = count-1; j >= 0; i++, j--) {
+                heap[i] = merged[j];
+                order[i] = counter+j;
+            }
+            counter += count;
+            size = count;
+            sorted = Arrays.copyOf(merged, count);
+            thresholdChanged();
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the elements sorted in descending order, computing them only if
+     * the collection changed since last time.
+     */
+    private Object[] sorted() {
+        if (sorted == null) {
+            // heapsort in place, moving the lowest element to the end each time
+            for (int last = size-1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
+            }
+            sorted = Arrays.copyOf(heap, size);
+            // an array sorted in ascending order is still a valid min-heap
+            for (int i = 0, j = size-1; i < j; i++, j--) {
+                swap(i, j);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(sorted())).iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+        sorted = null;
+        thresholdChanged();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.<br>
+     * <br>
+     * This operation takes at most <code>N</code> comparisons, where <code>N</code> is
+     * the specified size limit.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     *
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (int i = 0; i < size; i++) {
+            if (obj == null ? heap[i] == null : obj.equals(heap[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public Object[] toArray() {
+        return sorted().clone();
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in
+     * this collection, sorted in descending order; the runtime type of the
+     * returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        System.arraycopy(sorted(), 0, array, 0, size);
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof HeapTopN) {
+            final HeapTopN<?> that = (HeapTopN<?>)obj;
+            return n == that.n && Arrays.equals(sorted(), that.sorted());
+        }
+        return false;
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(sorted());
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate counter of the most frequent keys in a stream, using a fixed
+ * amount of memory regardless of the number of distinct keys.<br>
+ * <br>
+ * This implementation follows the "Space-Saving" algorithm: it monitors at most
+ * <code>capacity</code> keys at a time. When a key not currently monitored
+ * arrives and there's no room left, it replaces the monitored key with lowest
+ * count, inheriting its count as a possible overestimation error. Thus each
+ * reported {@link Counter} provides an estimated count that is never lower than
+ * the exact count, and an error bound such that the exact count is never lower
+ * than <code>count - error</code>. Any key occurring more than
+ * <code>total / capacity</code> times is guaranteed to be monitored.<br>
+ * <br>
+ * Monitored counters are kept in a min-heap indexed by key, so counting an
+ * occurrence takes <code>O(log capacity)</code> operations without allocating
+ * any object after the first <code>capacity</code> distinct keys. Summaries
+ * computed separately (for instance, one per partition) can be combined with
+ * {@link #merge(HeavyHitters)}.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * HeavyHitters<String> hitters = new HeavyHitters<String>(1000);
+ * for (String word : words) {
+ *     hitters.add(word);
+ * }
+ * for (HeavyHitters.Counter<String> counter : hitters) {
+ *     // counters sorted in descending order of estimated count
+ * }
+ * }</pre>
+ *
+ * @param <K> The type of counted keys
+ *
+ * @author Einar Saukas
+ */
+public class HeavyHitters<K> implements Iterable<HeavyHitters.Counter<K>>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int capacity;
+    private final Map<K, Entry<K>> entries;
+    private final Entry<K>[] heap;
+    private int size = 0;
+    private long total = 0;
+
+    /**
+     * Constructs an empty summary monitoring at most <code>capacity</code> keys.
+     *
+     * @param capacity Maximum number of keys monitored simultaneously
+     */
+    @SuppressWarnings("unchecked")
+    public HeavyHitters(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+        this.capacity = capacity;
+        this.entries = new HashMap<K, Entry<K>>(capacity*4/3+1);
+        this.heap = (Entry<K>[])new Entry<?>[capacity];
+    }
+
+    private void swap(int i, int j) {
+        final Entry<K> entry = heap[i];
+        heap[i] = heap[j];
+        heap[j] = entry;
+        heap[i].index = i;
+        heap[j].index = j;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i-1) >>> 1;
+            if (heap[parent].count <= heap[i].count) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2*i+1;
+            if (child >= size) {
+                break;
+            }
+            if (child+1 < size && heap[child+1].count < heap[child].count) {
+                child++;
+            }
+            if (heap[i].count <= heap[child].count) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void insert(K key, long count, long error) {
+        final Entry<K> entry = new Entry<K>(key, count, error);
+        entry.index = size;
+        heap[size] = entry;
+        entries.put(key, entry);
+        siftUp(size++);
+    }
+
+    /**
+     * Counts one occurrence of the specified key.
+     *
+     * @param key Key to be counted
+     */
+    public void add(K key) {
+        add(key, 1);
+    }
+
+    /**
+     * Counts the specified number of occurrences of the specified key.
+     *
+     * @param key Key to be counted
+     * @param count Number of occurrences, which must not be negative
+     */
+    public void add(K key, long count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative count");
+        }
+        total += count;
+        Entry<K> entry = entries.get(key);
+        if (entry != null) {
+            entry.count += count;
+            siftDown(entry.index);
+        } else if (size < capacity) {
+            insert(key, count, 0);
+        } else {
+            // replace the monitored key with lowest count
+            entry = heap[0];
+            entries.remove(entry.key);
+            entry.key = key;
+            entry.error = entry.count;
+            entry.count += count;
+            entries.put(key, entry);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns the lowest count among monitored keys if this summary is full,
+     * thus the maximum count of any key not currently monitored, or zero otherwise.
+     */
+    private long floor() {
+        return size == capacity ? heap[0].count : 0;
+    }
+
+    /**
+     * Returns an estimated upper bound for the number of occurrences of the
+     * specified key.
+     *
+     * @param key Key to be evaluated
+     * @return Estimated number of occurrences of this key, never lower than
+     * the exact number
+     */
+    public long estimate(K key) {
+        final Entry<K> entry = entries.get(key);
+        return entry != null ? entry.count : floor();
+    }
+
+    /**
+     * Merges the specified summary into this one, so that the result summarizes
+     * the concatenation of both streams. Error bounds are combined accordingly.
+     *
+     * @param other Summary to be merged, which is not modified
+     */
+    public void merge(HeavyHitters<K> other) {
+        final long floor = floor();
+        final long otherFloor = other.floor();
+        final List<Entry<K>> merged = new ArrayList<Entry<K>>(size + other.size);
+        for (int i = 0; i < size; i++) {
+            final Entry<K> entry = heap[i];
+            final Entry<K> that = other.entries.get(entry.key);
+            if (that != null) {
+                merged.add(new Entry<K>(entry.key, entry.count + that.count, entry.error + that.error));
+            } else {
+                merged.add(new Entry<K>(entry.key, entry.count + otherFloor, entry.error + otherFloor));
+            }
+        }
+        for (int i = 0; i < other.size; i++) {
+            final Entry<K> that = other.heap[i];
+            if (!entries.containsKey(that.key)) {
+                merged.add(new Entry<K>(that.key, that.count + floor, that.error + floor));
+            }
+        }
+        Collections.sort(merged);
+        final long mergedTotal = total + other.total;
+        clear();
+        total = mergedTotal;
+        for (Entry<K> entry : merged.subList(0, Math.min(capacity, merged.size()))) {
+            insert(entry.key, entry.count, entry.error);
+        }
+    }
+
+    /**
+     * Returns a read-only iterator over a snapshot of all monitored counters,
+     * sorted in descending order of estimated count.
+     *
+     * @return A read-only iterator over all monitored counters
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<Counter<K>> iterator() {
+        final Entry<K>[] snapshot = (Entry<K>[])new Entry<?>[size];
+        for (int i = 0; i < size; i++) {
+            snapshot[i] = new Entry<K>(heap[i].key, heap[i].count, heap[i].error);
+        }
+        Arrays.sort(snapshot);
+        return Collections.unmodifiableList(Arrays.<Counter<K>>asList(snapshot)).iterator();
+    }
+
+    /**
+     * Returns the number of monitored keys.
+     *
+     * @return The number of monitored keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if no key is monitored.
+     *
+     * @return <code>true</code> if no key is monitored
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the total number of occurrences counted.
+     *
+     * @return The total number of occurrences counted
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Removes all counters from this summary. It will be empty afterwards.
+     */
+    public void clear() {
+        entries.clear();
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+        total = 0;
+    }
+
+    /**
+     * Estimated number of occurrences of a key.
+     *
+     * @param <K> The type of counted keys
+     */
+    public interface Counter<K> {
+
+        /**
+         * Returns the counted key.
+         *
+         * @return The counted key
+         */
+        K getKey();
+
+        /**
+         * Returns the estimated number of occurrences of this key, never lower
+         * than the exact number.
+         *
+         * @return The estimated number of occurrences of this key
+         */
+        long getCount();
+
+        /**
+         * Returns the maximum overestimation of {@link #getCount()}, such that
+         * the exact number of occurrences is at least <code>getCount() - getError()</code>.
+         *
+         * @return The maximum overestimation of the number of occurrences
+         */
+        long getError();
+    }
+
+    private static final class Entry<K> implements Counter<K>, Comparable<Entry<K>>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private K key;
+        private long count;
+        private long error;
+        private int index;
+
+        Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public long getError() {
+            return error;
+        }
+
+        // sorts in descending order of count, then ascending order of error
+        @Override
+        public int compareTo(Entry<K> other) {
+            if (count != other.count) {
+                return count > other.count ? -1 : 1;
+            }
+            return error < other.error ? -1 : error > other.error ? 1 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + "(" + error + ")";
+        }
+    }
+}
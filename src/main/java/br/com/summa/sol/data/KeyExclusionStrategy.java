@@ -0,0 +1,60 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import br.com.summa.sol.util.Nullables;
+
+/**
+ * An {@link ExclusionStrategy} such that 2 elements are mutually exclusive if
+ * and only if they have equal keys.<br>
+ * <br>
+ * Collections such as {@link ListTopN} and {@link TreeTopN} recognize this
+ * strategy and keep their elements indexed by key, so finding the element
+ * mutually exclusive with a new one takes a single hash lookup, instead of
+ * evaluating the new element against every element in the collection.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * TopN<Offer> top = new ListTopN<Offer>(10, new KeyExclusionStrategy<Offer, Long>() {
+ *     public Long exclusionKey(Offer offer) {
+ *         return offer.getCustomerId();
+ *     }
+ * });
+ * }</pre>
+ *
+ * @param <E> The type of elements evaluated by this strategy
+ * @param <K> The type of keys extracted from elements
+ *
+ * @author Einar Saukas
+ */
+public abstract class KeyExclusionStrategy<E, K> implements ExclusionStrategy<E> {
+
+    /**
+     * Returns the key of the specified element. Keys must provide consistent
+     * implementations of {@link Object#equals(Object)} and {@link Object#hashCode()}.
+     *
+     * @param elem Element to be evaluated
+     * @return Key of this element, which may be <code>null</code>
+     */
+    public abstract K exclusionKey(E elem);
+
+    @Override
+    public final boolean mutuallyExclusive(E elem1, E elem2) {
+        return Nullables.equals(exclusionKey(elem1), exclusionKey(elem2));
+    }
+}
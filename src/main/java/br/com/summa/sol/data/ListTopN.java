@@ -16,10 +16,12 @@
 
 package br.com.summa.sol.data;
 
+import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ConcurrentModificationException;
 import java.util.ListIterator;
+import java.util.NoSuchElementException;
 
 /**
  * A generic collection strictly limited to size <code>N</code>. If more than
@@ -32,19 +34,27 @@ import java.util.ListIterator;
  * <br>
  * This collection is optimized for small values of <code>N</code> (typically
  * obtaining the "top5" or "top10" elements from a large set), keeping at most
- * <code>N</code> elements stored in a <code>LinkedList</code>. For much larger
- * values of <code>N</code>, use {@link TreeTopN} instead.
+ * <code>N</code> elements stored in a contiguous array, sorted in descending order.
+ * The array is allocated on demand up to size <code>N</code>. New elements are
+ * located by binary search and inserted by shifting lower elements, so reading
+ * an element by position takes constant time. For much larger values of
+ * <code>N</code>, use {@link TreeTopN} instead.
  *
  * @author Einar Saukas
  *
  * @param <E> The type of elements stored in this collection
  */
 public class ListTopN<E extends Comparable<E>> implements TopN<E> {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private final int n;
     private final ExclusionStrategy<E> exclusionStrategy;
-    private final LinkedList<E> list = new LinkedList<E>();
+    private final ExclusionIndex<E> exclusionIndex;
+    private Object[] elems = new Object[0];
+    private int size = 0;
+    private transient int modCount = 0;
+    private transient ThresholdListener<? super E> thresholdListener = null;
+    private transient E lastThreshold = null;
 
     /**
      * Constructs an empty collection limited to (greatest) <code>N</code> elements.
@@ -54,12 +64,19 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
     public ListTopN(int n) {
         this.n = n;
         this.exclusionStrategy = null;
+        this.exclusionIndex = null;
     }
 
     /**
      * Constructs an empty collection limited to (greatest) <code>N</code> elements. It also
      * defines an "exclusion strategy" such that, if any 2 elements are evaluated as "mutually
-     * exclusive", only the greater element will be stored.
+     * exclusive", only the greater element will be stored.<br>
+     * <br>
+     * If the specified strategy is a {@link KeyExclusionStrategy}, elements will be indexed
+     * by key, so that checking a new element for mutual exclusion takes a single lookup.
+     * If it's a {@link LshExclusionStrategy}, elements will be indexed by bucket keys, so
+     * that the new element will be only checked against elements sharing a bucket key.
+     * Otherwise the new element will be checked against each stored element in turn.
      *
      * @param n Strict limit <code>N</code> on the number of elements stored in this collection
      * @param exclusionStrategy Comparator strategy to check if 2 elements are mutually exclusive
@@ -67,17 +84,80 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
     public ListTopN(int n, ExclusionStrategy<E> exclusionStrategy) {
         this.n = n;
         this.exclusionStrategy = exclusionStrategy;
+        this.exclusionIndex = ExclusionIndex.of(exclusionStrategy);
+    }
+
+    int getN() {
+        return n;
+    }
+
+    ExclusionStrategy<E> getExclusionStrategy() {
+        return exclusionStrategy;
+    }
+
+    /**
+     * Defines a listener to be notified whenever the value returned by
+     * {@link #threshold()} changes. This listener is not serialized.
+     *
+     * @param listener Listener to be notified, or <code>null</code> for none
+     */
+    public void setThresholdListener(ThresholdListener<? super E> listener) {
+        this.thresholdListener = listener;
+        this.lastThreshold = threshold();
+    }
+
+    private void thresholdChanged() {
+        if (thresholdListener != null) {
+            final E current = threshold();
+            if (current != lastThreshold) {
+                lastThreshold = current;
+                thresholdListener.thresholdChanged(current);
+            }
+        }
     }
 
-    private void insertSorted(E elem, ListIterator<E> it) {
-        //ListIterator<E> it = list.listIterator(list.size());
-        while (it.hasPrevious()) {
-            if (it.previous().compareTo(elem) >= 0) {
-                it.next();
-                break;
+    @SuppressWarnings("unchecked")
+    private E elem(int i) {
+        return (E)elems[i];
+    }
+
+    // returns the position after all elements not lower than the specified element
+    private int insertionPoint(E elem) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            final int mid = (lo+hi) >>> 1;
+            if (elem(mid).compareTo(elem) >= 0) {
+                lo = mid+1;
+            } else {
+                hi = mid;
             }
         }
-        it.add(elem);
+        return lo;
+    }
+
+    // returns the position of this exact instance (not just an equal element)
+    private int indexOfInstance(E elem) {
+        int i = insertionPoint(elem);
+        do {
+            i--;
+        } while (elems[i] != elem);
+        return i;
+    }
+
+    private void insertSorted(E elem) {
+        if (size == elems.length) {
+            elems = Arrays.copyOf(elems, (int)Math.min(n, Math.max(4, size*2L)));
+        }
+        final int pos = insertionPoint(elem);
+        System.arraycopy(elems, pos, elems, pos+1, size-pos);
+        elems[pos] = elem;
+        size++;
+    }
+
+    private void removeAt(int pos) {
+        System.arraycopy(elems, pos+1, elems, pos, --size-pos);
+        elems[size] = null;
     }
 
     /**
@@ -94,31 +174,84 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public boolean add(E elem) {
-        if (list.size() >= n && list.getLast().compareTo(elem) >= 0) {
+        if (!addElement(elem)) {
             return false;
         }
-        if (exclusionStrategy != null) {
-            ListIterator<E> it = list.listIterator(list.size());
-            while (it.hasPrevious()) {
-                E other = it.previous();
+        modCount++;
+        thresholdChanged();
+        return true;
+    }
+
+    private boolean addElement(E elem) {
+        if (size >= n && (size == 0 || elem(size-1).compareTo(elem) >= 0)) {
+            return false;
+        }
+        if (exclusionIndex != null) {
+            E other = exclusionIndex.find(elem);
+            if (other != null) {
+                if (other.compareTo(elem) >= 0) {
+                    return false;
+                }
+                removeAt(indexOfInstance(other));
+                exclusionIndex.remove(other);
+                insertSorted(elem);
+                exclusionIndex.put(elem);
+                return true;
+            }
+        } else if (exclusionStrategy != null) {
+            for (int i = size-1; i >= 0; i--) {
+                E other = elem(i);
                 if (exclusionStrategy.mutuallyExclusive(elem, other)) {
                     if (other.compareTo(elem) >= 0) {
                         return false;
                     } else {
-                        it.remove();
-                        insertSorted(elem, it);
+                        removeAt(i);
+                        insertSorted(elem);
                         return true;
                     }
                 }
             }
         }
-        if (list.size() >= n) {
-            list.pollLast();
+        if (size >= n) {
+            E lowest = elem(--size);
+            elems[size] = null;
+            if (exclusionIndex != null) {
+                exclusionIndex.remove(lowest);
+            }
+        }
+        insertSorted(elem);
+        if (exclusionIndex != null) {
+            exclusionIndex.put(elem);
         }
-        insertSorted(elem, list.listIterator(list.size()));
         return true;
     }
 
+    /**
+     * Returns the lowest element in this collection if it's already full, thus
+     * the element that any new element must be greater than in order to be added,
+     * or <code>null</code> otherwise (so any element may be added).
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return size >= n && size > 0 ? elem(size-1) : null;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. This operation takes a single comparison.
+     * See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        return size < n || (size > 0 && elem(size-1).compareTo(elem) < 0);
+    }
+
     /**
      * Adds all elements from the specified collection to this collection.
      *
@@ -136,16 +269,119 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
         return changed;
     }
 
+    /**
+     * Merges all elements from the specified collection into this collection,
+     * taking <code>O(N)</code> comparisons. See {@link TopN#merge(TopN)}.<br>
+     * <br>
+     * If an exclusion strategy was specified, elements from the specified collection
+     * will be added one at a time instead, as in {@link #addAll(Collection)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        if (exclusionStrategy != null) {
+            return addAll(other);
+        }
+        final Object[] merged = new Object[(int)Math.min(n, (long)size + other.size())];
+        final MergingIterator<E> it = new MergingIterator<E>(iterator(), other.iterator());
+        boolean changed = false;
+        int count = 0;
+        while (count < merged.length && it.hasNext()) {
+            merged[count++] = it.next();
+            changed = changed || it.lastFromSecond();
+        }
+        if (changed) {
+            elems = merged;
+            size = count;
+            modCount++;
+            thresholdChanged();
+        }
+        return changed;
+    }
+
     /**
      * Returns a read-only list-iterator over all top <code>N</code> elements in
-     * this collection, sorted in descending order.
+     * this collection, sorted in descending order. The iterator is fail-fast: if
+     * this collection is modified after the iterator is created, it throws
+     * {@link ConcurrentModificationException}.
      *
      * @return A read-only list-iterator over all top <code>N</code> elements in
      * this collection, sorted in descending order
      */
     @Override
     public ListIterator<E> iterator() {
-        return Collections.unmodifiableList(list).listIterator();
+        return new Itr();
+    }
+
+    /**
+     * Read-only list-iterator over the stored elements.
+     */
+    private final class Itr implements ListIterator<E> {
+        private int cursor = 0;
+        private final int expectedModCount = modCount;
+
+        private void checkForComodification() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return cursor < size;
+        }
+
+        @Override
+        public E next() {
+            checkForComodification();
+            if (cursor >= size) {
+                throw new NoSuchElementException();
+            }
+            return elem(cursor++);
+        }
+
+        @Override
+        public boolean hasPrevious() {
+            return cursor > 0;
+        }
+
+        @Override
+        public E previous() {
+            checkForComodification();
+            if (cursor <= 0) {
+                throw new NoSuchElementException();
+            }
+            return elem(--cursor);
+        }
+
+        @Override
+        public int nextIndex() {
+            return cursor;
+        }
+
+        @Override
+        public int previousIndex() {
+            return cursor-1;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void set(E elem) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void add(E elem) {
+            throw new UnsupportedOperationException();
+        }
     }
 
     /**
@@ -155,7 +391,7 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public int size() {
-        return list.size();
+        return size;
     }
 
     /**
@@ -165,7 +401,7 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public boolean isEmpty() {
-        return list.isEmpty();
+        return size == 0;
     }
 
     /**
@@ -174,7 +410,13 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public void clear() {
-        list.clear();
+        Arrays.fill(elems, 0, size, null);
+        size = 0;
+        modCount++;
+        if (exclusionIndex != null) {
+            exclusionIndex.clear();
+        }
+        thresholdChanged();
     }
 
     /**
@@ -193,7 +435,12 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public boolean contains(Object obj) {
-        return list.contains(obj);
+        for (int i = 0; i < size; i++) {
+            if (obj == null ? elems[i] == null : obj.equals(elems[i])) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -207,27 +454,31 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public boolean containsAll(Collection<?> coll) {
-        return list.containsAll(coll);
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
      * Returns an array containing all top <code>N</code> elements in
-     * this collection, sorted in descending order. See
-     * {@link java.util.LinkedList#toArray()}.
+     * this collection, sorted in descending order.
      *
      * @return An array containing all top <code>N</code> elements in this
      * collection, sorted in descending order
      */
     @Override
     public Object[] toArray() {
-        return list.toArray();
+        return Arrays.copyOf(elems, size);
     }
 
     /**
      * Returns an array containing all top <code>N</code> elements in
      * this collection, sorted in descending order; the runtime type of the
      * returned array is that of the specified array.
-     * See {@link java.util.LinkedList#toArray(Object[])}.
+     * See {@link java.util.Collection#toArray(Object[])}.
      *
      * @param array The array into which all top <code>N</code> elements in
      * this collection are to be stored, if it is big enough; otherwise, a
@@ -237,8 +488,16 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
      * collection, sorted in descending order
      */
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T[] toArray(T[] array) {
-        return list.toArray(array);
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        System.arraycopy(elems, 0, array, 0, size);
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
     }
 
     /**
@@ -271,8 +530,21 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns the element at the specified position in descending order. This
+     * operation takes constant time.
+     *
+     * @param index Position of the element in descending order
+     *
+     * @return The element at the specified position in descending order
+     *
+     * @throws IndexOutOfBoundsException If <code>index</code> is negative, or not lower than {@link #size()}
+     */
     public E get(int index) {
-        return list.get(index);
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return elem(index);
     }
 
     @Override
@@ -282,13 +554,25 @@ public class ListTopN<E extends Comparable<E>> implements TopN<E> {
         }
         if (obj instanceof ListTopN) {
             final ListTopN<?> that = (ListTopN<?>)obj;
-            return n == that.n && list.equals(that.list);
+            if (n != that.n || size != that.size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!elems[i].equals(that.elems[i])) {
+                    return false;
+                }
+            }
+            return true;
         }
         return false;
     }
 
     @Override
     public int hashCode() {
-        return list.hashCode();
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31*hash + elems[i].hashCode();
+        }
+        return hash;
     }
 }
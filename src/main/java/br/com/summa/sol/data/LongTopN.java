@@ -0,0 +1,172 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+/**
+ * A collection of <code>long</code> scores, each one associated to a
+ * <code>long</code> identifier, strictly limited to size <code>N</code>. If more
+ * than <code>N</code> scores are added, it will keep the greatest <code>N</code>
+ * scores only, discarding the others.<br>
+ * <br>
+ * This is a primitive specialization of {@link HeapTopN}: scores, identifiers
+ * and insertion order are stored in parallel preallocated arrays organized as a
+ * binary min-heap, so adding elements never allocates any object. For
+ * 2 equal scores, the oldest one in this collection will be treated as greater.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * LongTopN top = new LongTopN(10);
+ * for (...) {
+ *     top.add(score, rowId);
+ * }
+ * long[] scores = new long[top.size()];
+ * long[] rowIds = new long[top.size()];
+ * top.toArrays(scores, rowIds);
+ * }</pre>
+ *
+ * @see DoubleTopN
+ *
+ * @author Einar Saukas
+ */
+public class LongTopN extends PrimitiveTopN {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] scores;
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> scores.
+     *
+     * @param n Strict limit <code>N</code> on the number of scores stored in this collection
+     */
+    public LongTopN(int n) {
+        super(n);
+        this.scores = new long[n];
+    }
+
+    @Override
+    int compareScores(int i, int j) {
+        return Long.compare(scores[i], scores[j]);
+    }
+
+    @Override
+    void swapScores(int i, int j) {
+        final long score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    /**
+     * Attempts to add the specified score to the collection. If the collection
+     * already contains <code>N</code> scores, and the specified new score is
+     * not greater than any of them, it won't be added. Otherwise the specified
+     * score will be added and, if the collection already contained <code>N</code>
+     * scores, the lowest of them will be automatically removed.
+     *
+     * @param score Score to be added
+     * @param id Identifier associated to this score
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the score was successfully added), <code>false</code> otherwise
+     */
+    public boolean add(long score, long id) {
+        if (size < n) {
+            scores[size] = score;
+            inserted(id);
+        } else if (n > 0 && scores[0] < score) {
+            scores[0] = score;
+            replacedLowest(id);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the specified range of scores to this collection, as if calling
+     * {@link #add(long, long)} for each one of them in sequence.
+     *
+     * @param scores Array containing scores to be added
+     * @param ids Array containing the identifier associated to each score
+     * @param off Index of the first score to be added
+     * @param len Number of scores to be added
+     *
+     * @return The number of scores successfully added
+     */
+    public int add(long[] scores, long[] ids, int off, int len) {
+        int added = 0;
+        final int end = off+len;
+        int i = off;
+        // fill the collection first, then reject against the lowest score
+        for (; i < end && size < n; i++) {
+            add(scores[i], ids[i]);
+            added++;
+        }
+        for (; i < end && size > 0; i++) {
+            if (this.scores[0] < scores[i]) {
+                this.scores[0] = scores[i];
+                replacedLowest(ids[i]);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Copies all top <code>N</code> scores in this collection, sorted in
+     * descending order, and their associated identifiers into the specified
+     * arrays. This operation doesn't allocate any object.
+     *
+     * @param scores Array to receive the scores, with length at least {@link #size()}
+     * @param ids Array to receive the associated identifiers, with length at
+     * least {@link #size()}
+     *
+     * @return The number of scores copied, thus {@link #size()}
+     */
+    public int toArrays(long[] scores, long[] ids) {
+        sort();
+        for (int i = 0, j = size-1; j >= 0; i++, j--) {
+            scores[i] = this.scores[j];
+            ids[i] = this.ids[j];
+        }
+        return size;
+    }
+
+    /**
+     * Returns the lowest score in this collection if it's already full, thus the
+     * score that any new score must be greater than in order to be added, or
+     * <code>Long.MIN_VALUE</code> otherwise (so any score would be added). Since this value
+     * may also be an actual score, use {@link #isFull()} to distinguish them.
+     *
+     * @return The current admission threshold
+     */
+    public long threshold() {
+        return n > 0 && size == n ? scores[0] : Long.MIN_VALUE;
+    }
+
+    /**
+     * Checks if the specified score could be added to this collection right now,
+     * without actually adding it. This operation takes a single comparison.
+     *
+     * @param score Score to be evaluated
+     *
+     * @return <code>true</code> if the specified score would be added
+     */
+    public boolean wouldAccept(long score) {
+        return size < n || (n > 0 && scores[0] < score);
+    }
+}
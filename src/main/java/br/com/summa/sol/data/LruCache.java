@@ -16,19 +16,42 @@
 
 package br.com.summa.sol.data;
 
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Generic local cache with limited size.<br>
  * <br>
  * It automatically discards least recently accessed entries so it never
- * exceeds the maximum specified size.
+ * exceeds the maximum specified size.<br>
+ * <br>
+ * Optionally, it may also limit the total weight of its entries, according to
+ * a specified {@link Weigher}. In this case, whenever an entry is added or
+ * replaced, least recently accessed entries are discarded until the total weight
+ * fits again (possibly discarding the new entry itself, if it's heavier than the
+ * maximum weight). Replacing a value through {@link Map.Entry#setValue(Object)}
+ * updates the total weight, but it only discards entries at the next insertion.
+ * The weight of each entry is computed once when it's added or replaced, and
+ * recorded, so that removing it subtracts exactly the same weight. Recorded
+ * weights are kept in a separate hash map, which costs one additional map node
+ * and one boxed <code>Long</code> per entry.<br>
+ * <br>
+ * Since every access relinks the accessed entry, see {@link BoundedCache} for
+ * cheaper and more scan resistant eviction policies.
  *
  * @author Einar Saukas
  */
 public class LruCache<K,V> extends LinkedHashMap<K,V> {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     // same as DEFAULT_INITIAL_CAPACITY
     private static final int INITIAL_CAPACITY = 16;
@@ -37,14 +60,404 @@ public class LruCache<K,V> extends LinkedHashMap<K,V> {
     private static final float LOAD_FACTOR = 0.75f;
 
     private final int maxEntries;
+    private final long maxWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private HashMap<K, Long> weights = new HashMap<K, Long>();
+    private long weight = 0;
 
     public LruCache(int maxEntries) {
+        this(maxEntries, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * Constructs an empty cache limited to the specified total weight.
+     *
+     * @param maxWeight Maximum total weight of all entries
+     * @param weigher Strategy to compute the weight of each entry
+     */
+    public LruCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        this(Integer.MAX_VALUE, maxWeight, weigher);
+    }
+
+    /**
+     * Constructs an empty cache limited to the specified number of entries and
+     * total weight.
+     *
+     * @param maxEntries Maximum number of entries
+     * @param maxWeight Maximum total weight of all entries
+     * @param weigher Strategy to compute the weight of each entry, or <code>null</code>
+     * to limit the number of entries only
+     */
+    public LruCache(int maxEntries, long maxWeight, Weigher<? super K, ? super V> weigher) {
         super(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        if (maxWeight < 0) {
+            throw new IllegalArgumentException("Invalid maximum weight");
+        }
         this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
     }
 
     @Override
     protected boolean removeEldestEntry(Map.Entry<K,V> eldest) {
-        return size() > maxEntries;
+        // weighted entries are only discarded after updating the total weight
+        return weigher == null && size() > maxEntries;
+    }
+
+    /**
+     * Returns the total weight of all entries in this cache, or their number if
+     * there's no {@link Weigher}.
+     *
+     * @return The total weight of all entries
+     */
+    public long totalWeight() {
+        return weigher != null ? weight : size();
+    }
+
+    private long weigh(Object key, V value) {
+        @SuppressWarnings("unchecked")
+        final long w = weigher.weigh((K)key, value);
+        if (w < 0) {
+            throw new IllegalArgumentException("Negative weight");
+        }
+        return w;
+    }
+
+    /**
+     * Records the weight of an entry just added or replaced.
+     */
+    private void charge(K key, long w) {
+        final Long old = weights.put(key, w);
+        weight += old != null ? w - old : w;
+    }
+
+    /**
+     * Forgets the recorded weight of an entry just removed, if any.
+     */
+    private void discharge(Object key) {
+        final Long old = weights.remove(key);
+        if (old != null) {
+            weight -= old;
+        }
+    }
+
+    /**
+     * Discards least recently accessed entries until both limits are satisfied.
+     */
+    private void evict() {
+        final Iterator<Map.Entry<K,V>> it = super.entrySet().iterator();
+        while ((size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+            final K eldest = it.next().getKey();
+            it.remove();
+            discharge(eldest);
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (weigher == null) {
+            return super.put(key, value);
+        }
+        final long w = weigh(key, value);
+        final V old = super.put(key, value);
+        charge(key, w);
+        evict();
+        return old;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        if (weigher == null) {
+            super.putAll(map);
+            return;
+        }
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        if (weigher == null) {
+            return super.putIfAbsent(key, value);
+        }
+        final V old = get(key);
+        return old == null ? put(key, value) : old;
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        if (weigher == null) {
+            return super.replace(key, value);
+        }
+        return containsKey(key) ? put(key, value) : null;
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        if (weigher == null) {
+            return super.replace(key, oldValue, newValue);
+        }
+        if (!containsKey(key) || !Objects.equals(get(key), oldValue)) {
+            return false;
+        }
+        put(key, newValue);
+        return true;
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (weigher == null) {
+            return super.remove(key);
+        }
+        final V old = super.remove(key);
+        discharge(key);
+        return old;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (weigher == null) {
+            return super.remove(key, value);
+        }
+        if (!containsKey(key) || !Objects.equals(get(key), value)) {
+            return false;
+        }
+        remove(key);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        weights.clear();
+        weight = 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object clone() {
+        final LruCache<K,V> copy = (LruCache<K,V>)super.clone();
+        copy.weights = new HashMap<K, Long>(weights);
+        return copy;
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        if (weigher == null) {
+            return super.computeIfAbsent(key, mappingFunction);
+        }
+        V value = get(key);
+        if (value == null) {
+            value = mappingFunction.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (weigher == null) {
+            return super.computeIfPresent(key, remappingFunction);
+        }
+        final V old = get(key);
+        if (old == null) {
+            return null;
+        }
+        return update(key, remappingFunction.apply(key, old));
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        if (weigher == null) {
+            return super.compute(key, remappingFunction);
+        }
+        return update(key, remappingFunction.apply(key, get(key)));
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        if (weigher == null) {
+            return super.merge(key, value, remappingFunction);
+        }
+        final V old = get(key);
+        return update(key, old == null ? value : remappingFunction.apply(old, value));
+    }
+
+    private V update(K key, V value) {
+        if (value == null) {
+            remove(key);
+        } else {
+            put(key, value);
+        }
+        return value;
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        if (weigher == null) {
+            super.replaceAll(function);
+            return;
+        }
+        for (Map.Entry<K,V> entry : entrySet()) {
+            entry.setValue(function.apply(entry.getKey(), entry.getValue()));
+        }
+        evict();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        if (weigher == null) {
+            return super.keySet();
+        }
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new WeighedIterator<K>() {
+                    @Override
+                    public K next() {
+                        return nextEntry().getKey();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LruCache.this.size();
+            }
+
+            @Override
+            public boolean contains(Object obj) {
+                return containsKey(obj);
+            }
+
+            @Override
+            public void clear() {
+                LruCache.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values() {
+        if (weigher == null) {
+            return super.values();
+        }
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new WeighedIterator<V>() {
+                    @Override
+                    public V next() {
+                        return nextEntry().getValue();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LruCache.this.size();
+            }
+
+            @Override
+            public boolean contains(Object obj) {
+                return containsValue(obj);
+            }
+
+            @Override
+            public void clear() {
+                LruCache.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K,V>> entrySet() {
+        if (weigher == null) {
+            return super.entrySet();
+        }
+        return new AbstractSet<Map.Entry<K,V>>() {
+            @Override
+            public Iterator<Map.Entry<K,V>> iterator() {
+                return new WeighedIterator<Map.Entry<K,V>>() {
+                    @Override
+                    public Map.Entry<K,V> next() {
+                        final Map.Entry<K,V> entry = nextEntry();
+                        return new Map.Entry<K,V>() {
+                            @Override
+                            public K getKey() {
+                                return entry.getKey();
+                            }
+
+                            @Override
+                            public V getValue() {
+                                return entry.getValue();
+                            }
+
+                            @Override
+                            public V setValue(V value) {
+                                final long w = weigh(entry.getKey(), value);
+                                final V old = entry.setValue(value);
+                                charge(entry.getKey(), w);
+                                return old;
+                            }
+
+                            @Override
+                            public boolean equals(Object obj) {
+                                return entry.equals(obj);
+                            }
+
+                            @Override
+                            public int hashCode() {
+                                return entry.hashCode();
+                            }
+
+                            @Override
+                            public String toString() {
+                                return entry.toString();
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LruCache.this.size();
+            }
+
+            @Override
+            public void clear() {
+                LruCache.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Iterator over the underlying entries, updating the total weight whenever
+     * an entry is removed.
+     */
+    private abstract class WeighedIterator<T> implements Iterator<T> {
+        private final Iterator<Map.Entry<K,V>> it = LruCache.super.entrySet().iterator();
+        private Map.Entry<K,V> current = null;
+
+        Map.Entry<K,V> nextEntry() {
+            current = it.next();
+            return current;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return it.hasNext();
+        }
+
+        @Override
+        public void remove() {
+            it.remove();
+            discharge(current.getKey());
+            current = null;
+        }
     }
 }
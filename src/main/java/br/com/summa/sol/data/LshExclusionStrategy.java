@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+/**
+ * An {@link ExclusionStrategy} for "near-duplicate" elements, using locality-sensitive
+ * hashing. Each element provides a few bucket keys, such that similar elements
+ * are very likely to share at least one bucket key, while dissimilar elements
+ * rarely do. Then {@link #mutuallyExclusive(Object, Object)} performs the actual
+ * (and typically more expensive) similarity check.<br>
+ * <br>
+ * Collections such as {@link ListTopN} and {@link TreeTopN} recognize this strategy
+ * and keep their elements indexed by bucket key, so that a new element is only
+ * checked for mutual exclusion against stored elements sharing a bucket key with
+ * it, instead of evaluating it against every element in the collection. Similar
+ * elements that don't share any bucket key are not considered mutually exclusive.<br>
+ * <br>
+ * Bucket keys are usually obtained from a signature of each element, using
+ * {@link #minHashBands(long[], int)} or {@link #simHashBands(long, int)}.
+ * Typical usage:
+ *
+ * <pre>{@code
+ * TopN<Document> top = new ListTopN<Document>(10, new LshExclusionStrategy<Document>() {
+ *     public long[] bucketKeys(Document doc) {
+ *         return simHashBands(doc.getSimHash(), 8);
+ *     }
+ *     public boolean mutuallyExclusive(Document doc1, Document doc2) {
+ *         return Long.bitCount(doc1.getSimHash() ^ doc2.getSimHash()) < 8;
+ *     }
+ * });
+ * }</pre>
+ *
+ * @param <E> The type of elements evaluated by this strategy
+ *
+ * @author Einar Saukas
+ */
+public abstract class LshExclusionStrategy<E> implements ExclusionStrategy<E> {
+
+    /**
+     * Returns the bucket keys of the specified element. Elements that may be
+     * mutually exclusive should share at least one bucket key.
+     *
+     * @param elem Element to be evaluated
+     * @return Bucket keys of this element
+     */
+    public abstract long[] bucketKeys(E elem);
+
+    /**
+     * Returns bucket keys for a MinHash signature, divided into the specified
+     * number of bands (each band combining the same number of consecutive values).
+     * Two elements share a bucket key if all values match in at least one band.
+     * For Jaccard similarity <code>s</code>, this happens with probability
+     * <code>1 - (1 - s^r)^b</code>, for <code>b</code> bands of <code>r</code>
+     * values each.
+     *
+     * @param minHashes MinHash signature, whose length must be a multiple of the number of bands
+     * @param bands Number of bands
+     * @return Bucket keys, one for each band
+     */
+    public static long[] minHashBands(long[] minHashes, int bands) {
+        if (bands <= 0 || minHashes.length % bands != 0) {
+            throw new IllegalArgumentException("Invalid number of bands");
+        }
+        final int rows = minHashes.length / bands;
+        final long[] keys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            long key = band;
+            for (int row = band*rows; row < (band+1)*rows; row++) {
+                key = mix(key ^ minHashes[row]);
+            }
+            keys[band] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Returns bucket keys for a 64-bit SimHash signature, divided into the specified
+     * number of bands of consecutive bits. Two signatures differing in less than
+     * <code>bands</code> bits will certainly share at least one bucket key.
+     *
+     * @param simHash SimHash signature
+     * @param bands Number of bands, between 1 and 64
+     * @return Bucket keys, one for each band
+     */
+    public static long[] simHashBands(long simHash, int bands) {
+        if (bands <= 0 || bands > 64) {
+            throw new IllegalArgumentException("Invalid number of bands");
+        }
+        final long[] keys = new long[bands];
+        int from = 0;
+        for (int band = 0; band < bands; band++) {
+            final int to = (band+1)*64 / bands;
+            final long mask = to - from == 64 ? -1L : ((1L << (to - from)) - 1) << from;
+            keys[band] = mix(band ^ mix(simHash & mask));
+            from = to;
+        }
+        return keys;
+    }
+
+    // 64-bit finalizer from MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
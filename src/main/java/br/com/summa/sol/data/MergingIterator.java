@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only iterator that merges 2 iterators sorted in descending order into a
+ * single sequence sorted in descending order. For equal elements, the ones from
+ * the first iterator come first.
+ *
+ * @param <E> The type of elements returned by this iterator
+ *
+ * @author Einar Saukas
+ */
+class MergingIterator<E extends Comparable<E>> implements Iterator<E> {
+    private final Iterator<? extends E> first;
+    private final Iterator<? extends E> second;
+    private E nextFirst;
+    private E nextSecond;
+    private boolean hasFirst;
+    private boolean hasSecond;
+    private boolean lastFromSecond;
+
+    MergingIterator(Iterator<? extends E> first, Iterator<? extends E> second) {
+        this.first = first;
+        this.second = second;
+        advanceFirst();
+        advanceSecond();
+    }
+
+    private void advanceFirst() {
+        hasFirst = first.hasNext();
+        nextFirst = hasFirst ? first.next() : null;
+    }
+
+    private void advanceSecond() {
+        hasSecond = second.hasNext();
+        nextSecond = hasSecond ? second.next() : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return hasFirst || hasSecond;
+    }
+
+    @Override
+    public E next() {
+        final E result;
+        if (hasFirst && (!hasSecond || nextFirst.compareTo(nextSecond) >= 0)) {
+            result = nextFirst;
+            lastFromSecond = false;
+            advanceFirst();
+        } else if (hasSecond) {
+            result = nextSecond;
+            lastFromSecond = true;
+            advanceSecond();
+        } else {
+            throw new NoSuchElementException();
+        }
+        return result;
+    }
+
+    /**
+     * Returns <code>true</code> if the last element returned by {@link #next()}
+     * came from the second iterator.
+     */
+    boolean lastFromSecond() {
+        return lastFromSecond;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+
+/**
+ * Binary min-heap shared by primitive specializations of {@link HeapTopN}. It
+ * keeps identifiers and insertion order in parallel preallocated arrays, while
+ * each subclass keeps scores in an array of its own primitive type.
+ *
+ * @author Einar Saukas
+ */
+abstract class PrimitiveTopN implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final int n;
+    final long[] ids;
+    private final long[] order;
+    int size = 0;
+    private long counter = 0;
+    private boolean ascending = true;
+
+    PrimitiveTopN(int n) {
+        this.n = n;
+        this.ids = new long[n];
+        this.order = new long[n];
+    }
+
+    /**
+     * Compares scores at the specified positions.
+     */
+    abstract int compareScores(int i, int j);
+
+    /**
+     * Swaps scores at the specified positions.
+     */
+    abstract void swapScores(int i, int j);
+
+    // true if score at position i should be discarded before score at position j
+    private boolean lower(int i, int j) {
+        final int cmp = compareScores(i, j);
+        return cmp < 0 || (cmp == 0 && order[i] > order[j]);
+    }
+
+    private void swap(int i, int j) {
+        swapScores(i, j);
+        final long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        final long seq = order[i];
+        order[i] = order[j];
+        order[j] = seq;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i-1) >>> 1;
+            if (!lower(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i, int limit) {
+        while (true) {
+            int child = 2*i+1;
+            if (child >= limit) {
+                break;
+            }
+            if (child+1 < limit && lower(child+1, child)) {
+                child++;
+            }
+            if (!lower(child, i)) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    /**
+     * Inserts the identifier of a score already stored at position {@link #size}.
+     */
+    void inserted(long id) {
+        ids[size] = id;
+        order[size] = counter++;
+        siftUp(size++);
+        ascending = false;
+    }
+
+    /**
+     * Inserts the identifier of a score already stored at position 0, replacing
+     * the lowest score.
+     */
+    void replacedLowest(long id) {
+        ids[0] = id;
+        order[0] = counter++;
+        siftDown(0, size);
+        ascending = false;
+    }
+
+    /**
+     * Sorts scores in ascending order, which is still a valid min-heap.
+     */
+    void sort() {
+        if (!ascending) {
+            // heapsort in place, moving the lowest score to the end each time
+            for (int last = size-1; last > 0; last--) {
+                swap(0, last);
+                siftDown(0, last);
+            }
+            for (int i = 0, j = size-1; i < j; i++, j--) {
+                swap(i, j);
+            }
+            ascending = true;
+        }
+    }
+
+    /**
+     * Returns the number of scores in this collection.
+     *
+     * @return The number of scores in this collection
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no scores.
+     *
+     * @return <code>true</code> if this collection contains no scores
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection already contains <code>N</code>
+     * scores, thus if a new score must be greater than the current threshold in
+     * order to be added.
+     *
+     * @return <code>true</code> if this collection contains <code>N</code> scores
+     */
+    public boolean isFull() {
+        return size == n;
+    }
+
+    /**
+     * Removes all scores from this collection. The collection will be empty
+     * afterwards.
+     */
+    public void clear() {
+        size = 0;
+        ascending = true;
+    }
+}
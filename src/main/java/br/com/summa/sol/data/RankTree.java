@@ -0,0 +1,451 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Balanced binary search tree (treap) of groups of "tied" elements, where each
+ * node also keeps the total number of elements in its subtree. Therefore finding
+ * the position of an element in descending order, or the element at a certain
+ * position, takes <code>O(log N)</code> operations.<br>
+ * <br>
+ * Each node is indexed by the oldest element of its group, and the other elements
+ * of the group are stored in {@link Ties}, in insertion order.
+ *
+ * @param <E> The type of stored elements
+ *
+ * @author Einar Saukas
+ */
+final class RankTree<E extends Comparable<E>> implements Iterable<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private transient Node<E> root = null;
+    private transient int modCount = 0;
+
+    static final class Node<E> {
+        E key;
+        Ties<E> ties = Ties.empty();
+        Node<E> left;
+        Node<E> right;
+        final int priority = ThreadLocalRandom.current().nextInt();
+        int weight = 1;
+
+        Node(E key) {
+            this.key = key;
+        }
+
+        int count() {
+            return 1 + ties.size();
+        }
+
+        E get(int i) {
+            return i == 0 ? key : ties.get(i-1);
+        }
+    }
+
+    private static int weight(Node<?> node) {
+        return node != null ? node.weight : 0;
+    }
+
+    private static <E> Node<E> update(Node<E> node) {
+        node.weight = node.count() + weight(node.left) + weight(node.right);
+        return node;
+    }
+
+    private static <E> Node<E> rotateRight(Node<E> node) {
+        final Node<E> left = node.left;
+        node.left = left.right;
+        left.right = update(node);
+        return update(left);
+    }
+
+    private static <E> Node<E> rotateLeft(Node<E> node) {
+        final Node<E> right = node.right;
+        node.right = right.left;
+        right.left = update(node);
+        return update(right);
+    }
+
+    // joins 2 subtrees, such that all elements in the first one are lower
+    private static <E> Node<E> join(Node<E> lower, Node<E> greater) {
+        if (lower == null) {
+            return greater;
+        }
+        if (greater == null) {
+            return lower;
+        }
+        if (lower.priority > greater.priority) {
+            lower.right = join(lower.right, greater);
+            return update(lower);
+        } else {
+            greater.left = join(lower, greater.left);
+            return update(greater);
+        }
+    }
+
+    /**
+     * Returns the total number of elements.
+     */
+    int size() {
+        return weight(root);
+    }
+
+    void clear() {
+        root = null;
+        modCount++;
+    }
+
+    /**
+     * Replaces all elements by the elements of another tree, which must not be
+     * used afterwards.
+     */
+    void replace(RankTree<E> other) {
+        root = other.root;
+        modCount++;
+    }
+
+    /**
+     * Builds a tree from elements supplied in descending order, in linear time.
+     * Each new element is either tied with the lowest node or becomes the new
+     * lowest node, so it only needs to be linked into the leftmost path, which
+     * is kept in a stack (like building a Cartesian tree).
+     */
+    static final class Builder<E extends Comparable<E>> {
+        private final Deque<Node<E>> spine = new ArrayDeque<Node<E>>();
+
+        /**
+         * Adds the specified element, which must not be greater than any element
+         * previously added, after all elements equal to it.
+         */
+        void add(E elem) {
+            final Node<E> lowest = spine.peek();
+            if (lowest != null && elem.compareTo(lowest.key) == 0) {
+                if (lowest.ties == Ties.EMPTY) {
+                    lowest.ties = new Ties<E>(elem);
+                } else {
+                    lowest.ties.add(elem);
+                }
+                return;
+            }
+            final Node<E> node = new Node<E>(elem);
+            // nodes with lower priority move below the new node, and are complete
+            Node<E> greater = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                greater = update(spine.pop());
+            }
+            node.right = greater;
+            if (!spine.isEmpty()) {
+                spine.peek().left = node;
+            }
+            spine.push(node);
+        }
+
+        /**
+         * Returns a tree containing all added elements.
+         */
+        RankTree<E> build() {
+            Node<E> root = null;
+            while (!spine.isEmpty()) {
+                root = update(spine.pop());
+            }
+            final RankTree<E> tree = new RankTree<E>();
+            tree.root = root;
+            return tree;
+        }
+    }
+
+    /**
+     * Returns the node containing the lowest elements, or <code>null</code> if empty.
+     */
+    Node<E> lowest() {
+        Node<E> node = root;
+        if (node != null) {
+            while (node.left != null) {
+                node = node.left;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns the node containing elements equal to the specified element, or
+     * <code>null</code> if there's none.
+     */
+    Node<E> find(E elem) {
+        Node<E> node = root;
+        while (node != null) {
+            final int cmp = elem.compareTo(node.key);
+            if (cmp == 0) {
+                return node;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the specified element, after all elements equal to it.
+     */
+    void add(E elem) {
+        root = add(root, elem);
+        modCount++;
+    }
+
+    private Node<E> add(Node<E> node, E elem) {
+        if (node == null) {
+            return new Node<E>(elem);
+        }
+        final int cmp = elem.compareTo(node.key);
+        if (cmp == 0) {
+            if (node.ties == Ties.EMPTY) {
+                node.ties = new Ties<E>(elem);
+            } else {
+                node.ties.add(elem);
+            }
+            node.weight++;
+            return node;
+        }
+        if (cmp < 0) {
+            node.left = add(node.left, elem);
+            if (node.left.priority > node.priority) {
+                return rotateRight(node);
+            }
+        } else {
+            node.right = add(node.right, elem);
+            if (node.right.priority > node.priority) {
+                return rotateLeft(node);
+            }
+        }
+        return update(node);
+    }
+
+    /**
+     * Removes this exact instance (not just an equal element), which must be stored.
+     */
+    void remove(E elem) {
+        root = remove(root, elem);
+        modCount++;
+    }
+
+    private Node<E> remove(Node<E> node, E elem) {
+        final int cmp = elem.compareTo(node.key);
+        if (cmp < 0) {
+            node.left = remove(node.left, elem);
+        } else if (cmp > 0) {
+            node.right = remove(node.right, elem);
+        } else if (node.key == elem) {
+            if (node.ties.size() == 0) {
+                return join(node.left, node.right);
+            }
+            // the next oldest element becomes the key, without changing order
+            node.key = node.ties.removeFirst();
+            compact(node);
+        } else {
+            node.ties.remove(elem);
+            compact(node);
+        }
+        return update(node);
+    }
+
+    private static <E> void compact(Node<E> node) {
+        if (node.ties.size() == 0) {
+            node.ties = Ties.empty();
+        }
+    }
+
+    /**
+     * Removes the node containing the lowest elements, and returns it.
+     */
+    Node<E> removeLowestGroup() {
+        final Node<E> lowest = lowest();
+        unlinkLowest(lowest, lowest.count());
+        modCount++;
+        return lowest;
+    }
+
+    /**
+     * Removes the newest element among the lowest elements, and returns it.
+     */
+    E removeLowest() {
+        final Node<E> lowest = lowest();
+        modCount++;
+        if (lowest.ties.size() == 0) {
+            unlinkLowest(lowest, 1);
+            return lowest.key;
+        }
+        for (Node<E> node = root; node != lowest; node = node.left) {
+            node.weight--;
+        }
+        lowest.weight--;
+        final E removed = lowest.ties.removeLast();
+        compact(lowest);
+        return removed;
+    }
+
+    // the lowest node has no left child, so it's simply replaced by its right child
+    private void unlinkLowest(Node<E> lowest, int count) {
+        if (root == lowest) {
+            root = lowest.right;
+            return;
+        }
+        Node<E> node = root;
+        while (node.left != lowest) {
+            node.weight -= count;
+            node = node.left;
+        }
+        node.weight -= count;
+        node.left = lowest.right;
+    }
+
+    /**
+     * Returns the number of elements strictly greater than the specified element.
+     */
+    int rank(E elem) {
+        int rank = 0;
+        Node<E> node = root;
+        while (node != null) {
+            final int cmp = elem.compareTo(node.key);
+            if (cmp < 0) {
+                rank += node.count() + weight(node.right);
+                node = node.left;
+            } else if (cmp > 0) {
+                node = node.right;
+            } else {
+                return rank + weight(node.right);
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Returns the element at the specified position in descending order.
+     */
+    E select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("Invalid position: " + k);
+        }
+        Node<E> node = root;
+        while (true) {
+            final int greater = weight(node.right);
+            if (k < greater) {
+                node = node.right;
+            } else if (k < greater + node.count()) {
+                return node.get(k - greater);
+            } else {
+                k -= greater + node.count();
+                node = node.left;
+            }
+        }
+    }
+
+    /**
+     * Returns a read-only iterator over all elements in descending order. The
+     * iterator is fail-fast: if the tree is modified after the iterator is
+     * created, it throws {@link ConcurrentModificationException}.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return iterator(0);
+    }
+
+    /**
+     * Returns a read-only iterator over all elements in descending order, starting
+     * from the specified position.
+     */
+    Iterator<E> iterator(int from) {
+        final Deque<Node<E>> stack = new ArrayDeque<Node<E>>();
+        int index = 0;
+        Node<E> node = root;
+        // keep in stack all nodes (greater than the starting one) still to be visited
+        while (node != null && from < node.weight) {
+            final int greater = weight(node.right);
+            if (from < greater) {
+                stack.push(node);
+                node = node.right;
+            } else if (from < greater + node.count()) {
+                stack.push(node);
+                index = from - greater;
+                break;
+            } else {
+                from -= greater + node.count();
+                node = node.left;
+            }
+        }
+        final int start = index;
+        return new Iterator<E>() {
+            private Node<E> current = null;
+            private int index = start;
+            private final int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return (current != null && index < current.count()) || !stack.isEmpty();
+            }
+
+            @Override
+            public E next() {
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (current == null || index >= current.count()) {
+                    if (current != null) {
+                        index = 0;
+                    }
+                    if (stack.isEmpty()) {
+                        throw new NoSuchElementException();
+                    }
+                    current = stack.pop();
+                    for (Node<E> node = current.left; node != null; node = node.right) {
+                        stack.push(node);
+                    }
+                }
+                return current.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size());
+        for (E elem : this) {
+            out.writeObject(elem);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        for (int i = in.readInt(); i > 0; i--) {
+            add((E)in.readObject());
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generic collection strictly limited to size <code>K</code>, keeping a uniform
+ * random sample of all elements added to it. After adding any number <code>T</code>
+ * of elements, each one of them has the same probability <code>K/T</code> of being
+ * stored in this collection (or all of them, if <code>T &lt;= K</code>).<br>
+ * <br>
+ * This collection follows "Algorithm L": instead of drawing a random number for
+ * each added element, it computes directly how many subsequent elements should
+ * be skipped before the next element is stored. Therefore each element takes
+ * a single decrement, and random numbers are only drawn for stored elements,
+ * which happens <code>O(K log(T/K))</code> times. Producers may also check
+ * {@link #skipCount()} to avoid building elements that would be skipped anyway.
+ * Samples computed separately (for instance, one per partition) can be combined
+ * with {@link #merge(ReservoirSample)}.<br>
+ * <br>
+ * Elements are returned in no particular order. Typical usage:
+ *
+ * <pre>{@code
+ * ReservoirSample<Order> sample = new ReservoirSample<Order>(1000);
+ * for (Order order : orders) {
+ *     sample.add(order);
+ * }
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class ReservoirSample<E> implements Collection<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int k;
+    private final Object[] sample;
+    private final Random random;
+    private int size = 0;
+    private long count = 0;
+    private long skip = 0;
+    private double w = 0;
+
+    /**
+     * Constructs an empty collection keeping a random sample of <code>K</code> elements.
+     *
+     * @param k Strict limit <code>K</code> on the number of elements stored in this collection
+     */
+    public ReservoirSample(int k) {
+        this(k, new Random());
+    }
+
+    /**
+     * Constructs an empty collection keeping a random sample of <code>K</code>
+     * elements, using the specified source of randomness.
+     *
+     * @param k Strict limit <code>K</code> on the number of elements stored in this collection
+     * @param random Source of randomness
+     */
+    public ReservoirSample(int k, Random random) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Invalid sample size");
+        }
+        this.k = k;
+        this.sample = new Object[k];
+        this.random = random;
+    }
+
+    // uniform random number in the open interval (0, 1)
+    private double nextDouble() {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0);
+        return u;
+    }
+
+    /**
+     * Computes how many elements to skip before the next stored element, given the
+     * current value of <code>w</code> (the largest of the <code>K</code> smallest
+     * random keys conceptually assigned to all elements so far).
+     */
+    private void nextSkip() {
+        final double s = Math.floor(Math.log(nextDouble()) / Math.log1p(-w));
+        skip = s < Long.MAX_VALUE ? (long)s : Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds the specified element to the collection, if it's selected for the
+     * random sample. Otherwise it's just counted.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if the element was stored, <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        count++;
+        if (size < k) {
+            sample[size++] = elem;
+            if (size == k) {
+                w = Math.exp(Math.log(nextDouble())/k);
+                nextSkip();
+            }
+            return true;
+        }
+        if (skip > 0) {
+            skip--;
+            return false;
+        }
+        sample[random.nextInt(k)] = elem;
+        w *= Math.exp(Math.log(nextDouble())/k);
+        nextSkip();
+        return true;
+    }
+
+    /**
+     * Returns how many subsequent elements will be discarded without being stored,
+     * thus how many elements may be counted using {@link #skip(long)} instead of
+     * adding them.
+     *
+     * @return Number of subsequent elements that will not be stored
+     */
+    public long skipCount() {
+        return size < k ? 0 : skip;
+    }
+
+    /**
+     * Counts the specified number of elements without providing them, as if they
+     * were added to this collection and discarded.
+     *
+     * @param elems Number of elements, which must not exceed {@link #skipCount()}
+     */
+    public void skip(long elems) {
+        if (elems < 0 || elems > skipCount()) {
+            throw new IllegalArgumentException("Invalid number of elements to skip");
+        }
+        skip -= elems;
+        count += elems;
+    }
+
+    /**
+     * Returns the number of elements added to this collection, either stored or not.
+     *
+     * @return The number of elements added to this collection
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was stored), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges the specified sample into this one, so that the result is a uniform
+     * random sample of all elements added to both. The specified sample must have
+     * been computed independently from this one, and not used anymore afterwards.
+     *
+     * @param other Sample to be merged, which is not modified
+     */
+    public void merge(ReservoirSample<? extends E> other) {
+        final Object[] mine = Arrays.copyOf(sample, size);
+        final Object[] theirs = Arrays.copyOf(other.sample, other.size);
+        long mineLeft = count;
+        long theirsLeft = other.count;
+        int mineSize = mine.length;
+        int theirsSize = theirs.length;
+        final int merged = (int)Math.min(k, mineLeft + theirsLeft);
+        // draw each element from either side, in proportion to the number of elements
+        // each sample represents, without replacement
+        for (int i = 0; i < merged; i++) {
+            if ((double)(mineLeft + theirsLeft) * random.nextDouble() < mineLeft) {
+                final int j = random.nextInt(mineSize);
+                sample[i] = mine[j];
+                mine[j] = mine[--mineSize];
+                mineLeft--;
+            } else {
+                final int j = random.nextInt(theirsSize);
+                sample[i] = theirs[j];
+                theirs[j] = theirs[--theirsSize];
+                theirsLeft--;
+            }
+        }
+        if (merged < size) {
+            Arrays.fill(sample, merged, size, null);
+        }
+        size = merged;
+        count += other.count;
+        if (size == k) {
+            // largest of the K smallest among count uniform keys, drawn in ascending order
+            double log = 0;
+            for (int i = 0; i < k; i++) {
+                log += Math.log(nextDouble()) / (count - i);
+            }
+            w = -Math.expm1(log);
+            nextSkip();
+        }
+    }
+
+    /**
+     * Returns a read-only iterator over all elements in this collection, in no
+     * particular order.
+     *
+     * @return A read-only iterator over all elements in this collection
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(sample).subList(0, size)).iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all elements from this collection, and resets the number of
+     * added elements. The collection will be empty afterwards.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(sample, 0, size, null);
+        size = 0;
+        count = 0;
+        skip = 0;
+        w = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (int i = 0; i < size; i++) {
+            if (obj == null ? sample[i] == null : obj.equals(sample[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in no
+     * particular order.
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(sample, size);
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in no
+     * particular order; the runtime type of the returned array is that of the
+     * specified array. See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all elements in this collection are to
+     * be stored, if it is big enough; otherwise, a new array of the same runtime
+     * type will be allocated for this purpose
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        System.arraycopy(sample, 0, array, 0, size);
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+}
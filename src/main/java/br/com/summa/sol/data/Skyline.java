@@ -0,0 +1,495 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import br.com.summa.sol.util.Nullables;
+
+/**
+ * A generic collection keeping only "non-dominated" elements (also known as the
+ * skyline or Pareto front) among all elements added to it, according to multiple
+ * criteria. An element is discarded if another element is at least as good as it
+ * according to every criterion, as evaluated by a {@link DominanceStrategy}. Thus
+ * for 2 arbitrary elements <code>x</code> and <code>y</code> that dominate each
+ * other (for instance, if they are equal), only the oldest one will be kept.<br>
+ * <br>
+ * The skyline is maintained incrementally: adding an element compares it against
+ * stored elements only, so memory is proportional to the size of the skyline.
+ * By default, stored elements are kept in a list following the "block-nested-loop"
+ * algorithm: a new element is compared against each stored element until one of
+ * them dominates it, and each dominating element is moved to the front of the
+ * list, so elements that dominate many others are evaluated first.<br>
+ * <br>
+ * For elements compared by all their coordinates (with greater values being better,
+ * and <code>null</code> lower than any other value), there are specialized
+ * implementations for {@link Duple} (see {@link #ofDuples()}) and {@link Triple}
+ * (see {@link #ofTriples()}). Typical usage:
+ *
+ * <pre>{@code
+ * // highest rating and lowest price
+ * Skyline<Duple<Integer, Integer>> skyline = Skyline.ofDuples();
+ * for (Offer offer : offers) {
+ *     skyline.add(new Duple<Integer, Integer>(offer.getRating(), -offer.getPrice()));
+ * }
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class Skyline<E> implements Collection<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Front<E> front;
+
+    /**
+     * Constructs an empty collection that keeps only elements not dominated by
+     * others, according to the specified strategy.
+     *
+     * @param dominance Strategy to check if an element dominates another
+     */
+    public Skyline(DominanceStrategy<? super E> dominance) {
+        this(new ListFront<E>(dominance));
+    }
+
+    private Skyline(Front<E> front) {
+        this.front = front;
+    }
+
+    /**
+     * Constructs an empty collection that keeps only {@link Duple} elements not
+     * dominated by others, such that <code>(x1, y1)</code> dominates <code>(x2, y2)</code>
+     * if <code>x1 &gt;= x2</code> and <code>y1 &gt;= y2</code>. Elements are kept
+     * in a tree sorted by <code>x</code>, so adding an element takes amortized
+     * <code>O(log n)</code> operations for a skyline of size <code>n</code>, and
+     * elements are returned in descending order.
+     *
+     * @param <X> The type of first coordinates
+     * @param <Y> The type of second coordinates
+     * @return Empty skyline of {@link Duple} elements
+     */
+    public static <X extends Comparable<X>, Y extends Comparable<Y>> Skyline<Duple<X, Y>> ofDuples() {
+        return new Skyline<Duple<X, Y>>(new DupleFront<X, Y>());
+    }
+
+    /**
+     * Constructs an empty collection that keeps only {@link Triple} elements not
+     * dominated by others, such that <code>(x1, y1, z1)</code> dominates
+     * <code>(x2, y2, z2)</code> if <code>x1 &gt;= x2</code>, <code>y1 &gt;= y2</code>
+     * and <code>z1 &gt;= z2</code>. Elements are kept sorted in descending order,
+     * so adding an element only compares it against stored elements with greater
+     * (or equal) <code>x</code> to check if it's dominated. Moreover, adding many
+     * elements at once through {@link #addAll(Collection)} sorts them and filters
+     * them in a single sweep ("sort-filter-skyline"), in <code>O(m log m)</code>
+     * operations for <code>m</code> elements.
+     *
+     * @param <X> The type of first coordinates
+     * @param <Y> The type of second coordinates
+     * @param <Z> The type of third coordinates
+     * @return Empty skyline of {@link Triple} elements
+     */
+    public static <X extends Comparable<X>, Y extends Comparable<Y>, Z extends Comparable<Z>>
+            Skyline<Triple<X, Y, Z>> ofTriples() {
+        return new Skyline<Triple<X, Y, Z>>(new TripleFront<X, Y, Z>());
+    }
+
+    /**
+     * Attempts to add the specified element to the collection. If any stored
+     * element dominates it, it won't be added. Otherwise the specified element
+     * will be added, and all stored elements dominated by it will be removed.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        return front.add(elem);
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        return front.addAll(coll);
+    }
+
+    /**
+     * Returns a read-only iterator over all elements in this collection.
+     *
+     * @return A read-only iterator over all elements in this collection
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return front.iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return front.size();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return front.size() == 0;
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        front.clear();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (E elem : this) {
+            if (obj == null ? elem == null : obj.equals(elem)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in the same
+     * order as {@link #iterator()}.
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    public Object[] toArray() {
+        return toArray(new Object[size()]);
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in the same
+     * order as {@link #iterator()}; the runtime type of the returned array is that
+     * of the specified array. See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all elements in this collection are to
+     * be stored, if it is big enough; otherwise, a new array of the same runtime
+     * type will be allocated for this purpose
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        final int size = size();
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        int i = 0;
+        for (E elem : this) {
+            array[i++] = (T)elem;
+        }
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Storage of non-dominated elements.
+     */
+    private abstract static class Front<E> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract boolean add(E elem);
+
+        boolean addAll(Collection<? extends E> coll) {
+            boolean changed = false;
+            for (E elem : coll) {
+                changed = add(elem) || changed;
+            }
+            return changed;
+        }
+
+        abstract Iterator<E> iterator();
+
+        abstract int size();
+
+        abstract void clear();
+    }
+
+    /**
+     * Block-nested-loop implementation for any dominance strategy.
+     */
+    private static final class ListFront<E> extends Front<E> {
+        private static final long serialVersionUID = 1L;
+
+        private final DominanceStrategy<? super E> dominance;
+        private final List<E> elems = new ArrayList<E>();
+
+        ListFront(DominanceStrategy<? super E> dominance) {
+            this.dominance = dominance;
+        }
+
+        @Override
+        boolean add(E elem) {
+            final int size = elems.size();
+            for (int i = 0; i < size; i++) {
+                final E other = elems.get(i);
+                if (dominance.dominates(other, elem)) {
+                    // move dominating element to the front
+                    elems.set(i, elems.get(0));
+                    elems.set(0, other);
+                    return false;
+                }
+            }
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                final E other = elems.get(i);
+                if (!dominance.dominates(elem, other)) {
+                    elems.set(count++, other);
+                }
+            }
+            elems.subList(count, size).clear();
+            elems.add(elem);
+            return true;
+        }
+
+        @Override
+        Iterator<E> iterator() {
+            return Collections.unmodifiableList(elems).iterator();
+        }
+
+        @Override
+        int size() {
+            return elems.size();
+        }
+
+        @Override
+        void clear() {
+            elems.clear();
+        }
+    }
+
+    /**
+     * Implementation for {@link Duple} elements, stored as a {@link Staircase}.
+     */
+    private static final class DupleFront<X extends Comparable<X>, Y extends Comparable<Y>>
+            extends Front<Duple<X, Y>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Staircase<X, Y, Duple<X, Y>> staircase = new Staircase<X, Y, Duple<X, Y>>();
+
+        @Override
+        boolean add(Duple<X, Y> elem) {
+            if (staircase.dominated(elem.getX(), elem.getY())) {
+                return false;
+            }
+            staircase.add(elem.getX(), elem.getY(), elem);
+            return true;
+        }
+
+        @Override
+        Iterator<Duple<X, Y>> iterator() {
+            return staircase.iterator();
+        }
+
+        @Override
+        int size() {
+            return staircase.size();
+        }
+
+        @Override
+        void clear() {
+            staircase.clear();
+        }
+    }
+
+    /**
+     * Implementation for {@link Triple} elements, stored in descending order.
+     */
+    private static final class TripleFront<X extends Comparable<X>, Y extends Comparable<Y>, Z extends Comparable<Z>>
+            extends Front<Triple<X, Y, Z>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Triple<X, Y, Z>> elems = new ArrayList<Triple<X, Y, Z>>();
+
+        // returns the position of the first element with coordinate x lower than
+        // (or also equal to, if inclusive) the specified one
+        private int boundary(X x, boolean inclusive) {
+            int lo = 0;
+            int hi = elems.size();
+            while (lo < hi) {
+                final int mid = (lo+hi) >>> 1;
+                final int cmp = Nullables.compareToWithNullsFirst(elems.get(mid).getX(), x);
+                if (cmp > 0 || (cmp == 0 && !inclusive)) {
+                    lo = mid+1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static <Y extends Comparable<Y>, Z extends Comparable<Z>> boolean dominates(
+                Triple<?, Y, Z> elem1, Triple<?, Y, Z> elem2) {
+            return Nullables.compareToWithNullsFirst(elem1.getY(), elem2.getY()) >= 0
+                    && Nullables.compareToWithNullsFirst(elem1.getZ(), elem2.getZ()) >= 0;
+        }
+
+        @Override
+        boolean add(Triple<X, Y, Z> elem) {
+            // only elements with greater or equal x may dominate it
+            final int greater = boundary(elem.getX(), false);
+            for (int i = 0; i < greater; i++) {
+                if (dominates(elems.get(i), elem)) {
+                    return false;
+                }
+            }
+            // only elements with lower or equal x may be dominated by it
+            final int size = elems.size();
+            int count = boundary(elem.getX(), true);
+            for (int i = count; i < size; i++) {
+                final Triple<X, Y, Z> other = elems.get(i);
+                if (!dominates(elem, other)) {
+                    elems.set(count++, other);
+                }
+            }
+            elems.subList(count, size).clear();
+            final int pos = Collections.binarySearch(elems, elem, Collections.reverseOrder());
+            elems.add(pos < 0 ? -pos-1 : pos, elem);
+            return true;
+        }
+
+        @Override
+        boolean addAll(Collection<? extends Triple<X, Y, Z>> coll) {
+            // sort-filter-skyline: after sorting in descending order, an element may
+            // only be dominated by previous elements, and never dominates them
+            final List<Triple<X, Y, Z>> sorted = new ArrayList<Triple<X, Y, Z>>(coll);
+            Collections.sort(sorted, Collections.reverseOrder());
+            // projection of previous non-dominated elements over coordinates (y, z)
+            final Staircase<Y, Z, Object> projection = new Staircase<Y, Z, Object>();
+            final List<Triple<X, Y, Z>> filtered = new ArrayList<Triple<X, Y, Z>>();
+            for (Triple<X, Y, Z> elem : sorted) {
+                if (!projection.dominated(elem.getY(), elem.getZ())) {
+                    projection.add(elem.getY(), elem.getZ(), null);
+                    filtered.add(elem);
+                }
+            }
+            if (elems.isEmpty()) {
+                elems.addAll(filtered);
+                return !filtered.isEmpty();
+            }
+            return super.addAll(filtered);
+        }
+
+        @Override
+        Iterator<Triple<X, Y, Z>> iterator() {
+            return Collections.unmodifiableList(elems).iterator();
+        }
+
+        @Override
+        int size() {
+            return elems.size();
+        }
+
+        @Override
+        void clear() {
+            elems.clear();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import br.com.summa.sol.util.Nullables;
+
+/**
+ * Set of 2D points such that none of them dominates another, thus a "staircase"
+ * where <code>b</code> strictly decreases as <code>a</code> increases. Point
+ * <code>(a1, b1)</code> dominates <code>(a2, b2)</code> if <code>a1 &gt;= a2</code>
+ * and <code>b1 &gt;= b2</code>, with <code>null</code> lower than any other value.
+ * Points are stored in a tree indexed by <code>a</code>, so checking if a point
+ * is dominated takes <code>O(log n)</code> operations, and adding a point takes
+ * amortized <code>O(log n)</code> operations.
+ *
+ * @param <A> The type of first coordinates
+ * @param <B> The type of second coordinates
+ * @param <V> The type of values associated to points
+ *
+ * @author Einar Saukas
+ */
+class Staircase<A extends Comparable<A>, B extends Comparable<B>, V> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final TreeMap<A, Step<B, V>> steps = new TreeMap<A, Step<B, V>>(new NullsFirst<A>());
+
+    /**
+     * Checks if any stored point dominates the specified point.
+     */
+    boolean dominated(A a, B b) {
+        // among points with coordinate a or greater, the first one has greatest b
+        final Map.Entry<A, Step<B, V>> ceiling = steps.ceilingEntry(a);
+        return ceiling != null && Nullables.compareToWithNullsFirst(ceiling.getValue().b, b) >= 0;
+    }
+
+    /**
+     * Adds the specified point, which must not be dominated by any stored point,
+     * removing all stored points dominated by it.
+     */
+    void add(A a, B b, V value) {
+        // dominated points are the ones immediately before it
+        final Iterator<Step<B, V>> it = steps.headMap(a, true).descendingMap().values().iterator();
+        while (it.hasNext() && Nullables.compareToWithNullsFirst(it.next().b, b) <= 0) {
+            it.remove();
+        }
+        steps.put(a, new Step<B, V>(b, value));
+    }
+
+    /**
+     * Returns a read-only iterator over all values, in descending order of
+     * coordinate <code>a</code>.
+     */
+    Iterator<V> iterator() {
+        final Iterator<Step<B, V>> it = Collections.unmodifiableCollection(steps.descendingMap().values()).iterator();
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return it.next().value;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    int size() {
+        return steps.size();
+    }
+
+    void clear() {
+        steps.clear();
+    }
+
+    private static final class Step<B, V> implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final B b;
+        private final V value;
+
+        Step(B b, V value) {
+            this.b = b;
+            this.value = value;
+        }
+    }
+
+    private static final class NullsFirst<T extends Comparable<T>> implements Comparator<T>, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public int compare(T x, T y) {
+            return Nullables.compareToWithNullsFirst(x, y);
+        }
+    }
+}
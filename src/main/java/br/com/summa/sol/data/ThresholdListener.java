@@ -0,0 +1,38 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+/**
+ * Listener notified whenever the admission threshold of a {@link TopN}
+ * collection changes, thus whenever the lowest element that a new element must
+ * be compared against is replaced. Producers may use it to keep a cheap local
+ * copy of the threshold, discarding candidates without even building them.
+ *
+ * @param <E> The type of elements stored in the collection
+ *
+ * @author Einar Saukas
+ */
+public interface ThresholdListener<E> {
+
+    /**
+     * Invoked after the admission threshold changed.
+     *
+     * @param threshold The new threshold, or <code>null</code> if the collection
+     * is no longer full (so any element would be accepted)
+     */
+    void thresholdChanged(E threshold);
+}
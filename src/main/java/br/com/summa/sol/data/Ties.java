@@ -0,0 +1,99 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.Arrays;
+
+/**
+ * Elements "tied" with the oldest element of a group, in insertion order. A
+ * single shared empty instance is used for all groups without ties, and it's
+ * never modified, so distinct elements don't require any storage for ties.
+ *
+ * @param <E> The type of stored elements
+ *
+ * @author Einar Saukas
+ */
+final class Ties<E> {
+    @SuppressWarnings("rawtypes")
+    static final Ties EMPTY = new Ties();
+
+    private Object[] elems;
+    private int size;
+
+    private Ties() {
+        this.elems = new Object[0];
+        this.size = 0;
+    }
+
+    Ties(E elem) {
+        this.elems = new Object[] {elem, null};
+        this.size = 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <E> Ties<E> empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(int i) {
+        return (E)elems[i];
+    }
+
+    void add(E elem) {
+        if (size == elems.length) {
+            elems = Arrays.copyOf(elems, size + (size >> 1) + 1);
+        }
+        elems[size++] = elem;
+    }
+
+    E removeFirst() {
+        final E elem = get(0);
+        System.arraycopy(elems, 1, elems, 0, --size);
+        elems[size] = null;
+        return elem;
+    }
+
+    E removeLast() {
+        final E elem = get(--size);
+        elems[size] = null;
+        return elem;
+    }
+
+    // removes this exact instance (not just an equal element)
+    void remove(E elem) {
+        int i = 0;
+        while (elems[i] != elem) {
+            i++;
+        }
+        System.arraycopy(elems, i+1, elems, i, --size - i);
+        elems[size] = null;
+    }
+
+    boolean contains(Object obj) {
+        for (int i = 0; i < size; i++) {
+            if (obj == null ? elems[i] == null : obj.equals(elems[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
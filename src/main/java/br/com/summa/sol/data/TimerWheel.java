@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Hierarchical timing wheel, used to find expired timers without examining
+ * the others.<br>
+ * <br>
+ * Each level is a circular array of buckets, and each bucket is a doubly linked
+ * list of timers whose deadline falls within the same tick. Ticks at each level
+ * are 64 times longer than at the previous level, from 64 milliseconds up to
+ * about 12 days. Timers are placed at the finest level able to hold them, so
+ * scheduling or descheduling a timer takes <code>O(1)</code> operations. As time
+ * advances, only the buckets for elapsed ticks are examined: expired timers are
+ * reported, and the others are moved to a finer level. Therefore each timer is
+ * examined at most a few times before expiring.
+ *
+ * @param <T> The type of timers
+ *
+ * @author Einar Saukas
+ */
+final class TimerWheel<T extends TimerWheel.Timer> {
+    private static final int BUCKETS = 64;
+    private static final int BUCKET_MASK = BUCKETS - 1;
+    private static final int[] SHIFTS = {6, 12, 18, 24, 30};
+
+    private final Timer[][] wheel = new Timer[SHIFTS.length][BUCKETS];
+    private long time;
+    private int size = 0;
+
+    static class Timer {
+        long deadline;
+        Timer prevTimer;
+        Timer nextTimer;
+    }
+
+    TimerWheel(long now) {
+        this.time = now;
+        for (Timer[] buckets : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                final Timer sentinel = new Timer();
+                sentinel.prevTimer = sentinel;
+                sentinel.nextTimer = sentinel;
+                buckets[i] = sentinel;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private Timer bucket(long deadline) {
+        final long delay = deadline - time;
+        int level = 0;
+        while (level < SHIFTS.length-1 && delay >= 1L << SHIFTS[level+1]) {
+            level++;
+        }
+        return wheel[level][(int)(Math.max(deadline, time) >>> SHIFTS[level]) & BUCKET_MASK];
+    }
+
+    /**
+     * Schedules the specified timer to expire at the specified deadline,
+     * replacing its previous deadline if it was already scheduled.
+     */
+    void schedule(T timer, long deadline) {
+        deschedule(timer);
+        final Timer sentinel = bucket(deadline);
+        timer.deadline = deadline;
+        timer.prevTimer = sentinel.prevTimer;
+        timer.nextTimer = sentinel;
+        sentinel.prevTimer.nextTimer = timer;
+        sentinel.prevTimer = timer;
+        size++;
+    }
+
+    /**
+     * Cancels the specified timer, if it's scheduled.
+     */
+    void deschedule(T timer) {
+        if (timer.prevTimer != null) {
+            timer.prevTimer.nextTimer = timer.nextTimer;
+            timer.nextTimer.prevTimer = timer.prevTimer;
+            timer.prevTimer = null;
+            timer.nextTimer = null;
+            size--;
+        }
+    }
+
+    /**
+     * Advances the current time, reporting each expired timer (already descheduled)
+     * to the specified consumer together with the current time.
+     */
+    @SuppressWarnings("unchecked")
+    void advance(long now, ObjLongConsumer<? super T> expired) {
+        final long previous = time;
+        if (now <= previous) {
+            return;
+        }
+        time = now;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            final long previousTicks = previous >>> SHIFTS[level];
+            final long currentTicks = now >>> SHIFTS[level];
+            if (currentTicks == previousTicks) {
+                break;
+            }
+            // the current bucket is examined too, moving its timers to a finer level
+            final long count = Math.min(currentTicks - previousTicks, BUCKETS - 1);
+            for (long ticks = currentTicks - count; ticks <= currentTicks; ticks++) {
+                final Timer sentinel = wheel[level][(int)ticks & BUCKET_MASK];
+                Timer timer = sentinel.nextTimer;
+                sentinel.prevTimer = sentinel;
+                sentinel.nextTimer = sentinel;
+                while (timer != sentinel) {
+                    final Timer next = timer.nextTimer;
+                    timer.prevTimer = null;
+                    timer.nextTimer = null;
+                    size--;
+                    if (timer.deadline <= now) {
+                        expired.accept((T)timer, now);
+                    } else {
+                        schedule((T)timer, timer.deadline);
+                    }
+                    timer = next;
+                }
+            }
+        }
+    }
+}
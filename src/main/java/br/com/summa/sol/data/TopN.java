@@ -29,4 +29,46 @@ import java.util.Collection;
  * @author Einar Saukas
  */
 public interface TopN<E> extends Collection<E>, Serializable {
+
+    /**
+     * Merges all elements from the specified collection into this collection.
+     * The result is the same as adding all elements from the specified collection
+     * in descending order, such that elements already stored in this collection
+     * are treated as older than equal elements from the other collection. However
+     * merging works directly on the sorted contents of both collections, without
+     * evaluating each element for admission separately.<br>
+     * <br>
+     * The default implementation simply adds all elements from the specified
+     * collection, in its iteration order.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    default boolean merge(TopN<? extends E> other) {
+        return addAll(other);
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. If this method returns <code>false</code>, then
+     * {@link #add(Object)} would certainly reject this element (or any other element
+     * that compares equal to it). Therefore producers may use a cheap "probe" element
+     * to avoid building expensive elements that would be discarded anyway. If this
+     * method returns <code>true</code>, the element may still be rejected for other
+     * reasons, such as an exclusion strategy.<br>
+     * <br>
+     * The default implementation knows nothing about the collection limits, so it
+     * always returns <code>true</code>. Implementations should override it whenever
+     * they can reject elements cheaply.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    default boolean wouldAccept(E elem) {
+        return true;
+    }
 }
@@ -0,0 +1,258 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Convenience class for saving and restoring {@link TopN} collections to and
+ * from compact checkpoint files.<br>
+ * <br>
+ * A checkpoint contains the collection type, its size limits and all stored
+ * elements in descending order, each one encoded by the specified
+ * {@link ElementCodec}. Checkpoints are written into a temporary file which
+ * replaces the target file only when complete, so a previous checkpoint is never
+ * left corrupted. The restored collection is rebuilt directly from its sorted
+ * contents (see {@link TopN#merge(TopN)}), without evaluating each element for
+ * admission separately.<br>
+ * <br>
+ * Checkpoints are loaded through a read-only memory mapping of the file. The
+ * mapping is only released by the garbage collector some time after loading, so
+ * the file may remain open (and impossible to delete on some platforms) until
+ * then.<br>
+ * <br>
+ * Exclusion strategies are code, not data, so they are never stored in a
+ * checkpoint. A collection saved with an exclusion strategy should be restored
+ * by passing the same strategy to {@link #load(File, ElementCodec, ExclusionStrategy)}.<br>
+ * <br>
+ * Supported collections are {@link ListTopN}, {@link TreeTopN} and {@link HeapTopN}.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * TopNCheckpoints.save(ranking, codec, file);
+ * ...
+ * TopN<Score> ranking = TopNCheckpoints.load(file, codec);
+ * }</pre>
+ *
+ * @author Einar Saukas
+ */
+public final class TopNCheckpoints {
+
+    private static final int MAGIC = 0x546F704E;
+    private static final int VERSION = 2;
+
+    private static final int LIST_TOPN = 1;
+    private static final int TREE_TOPN = 2;
+    private static final int HEAP_TOPN = 3;
+
+    /**
+     * Prevents instantiation
+     */
+    private TopNCheckpoints() {
+    }
+
+    /**
+     * Saves the specified collection into a checkpoint file, replacing it if it
+     * already exists. A collection created by {@link TopNs#create(int, int, ExclusionStrategy)}
+     * is saved (and later loaded) as the implementation it currently delegates to.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param topN Collection to be saved
+     * @param codec Codec used to write each element
+     * @param file Checkpoint file
+     * @throws IOException If an I/O error occurs
+     * @throws IllegalArgumentException If the collection type is not supported
+     */
+    public static <E extends Comparable<E>> void save(TopN<E> topN, ElementCodec<? super E> codec, File file)
+            throws IOException {
+        if (topN instanceof AdaptiveTopN) {
+            topN = ((AdaptiveTopN<E>)topN).backend();
+        }
+        final int type;
+        final int n;
+        final int max;
+        if (topN instanceof ListTopN) {
+            type = LIST_TOPN;
+            n = max = ((ListTopN<E>)topN).getN();
+        } else if (topN instanceof TreeTopN) {
+            type = TREE_TOPN;
+            n = ((TreeTopN<E>)topN).getN();
+            max = ((TreeTopN<E>)topN).getMax();
+        } else if (topN instanceof HeapTopN) {
+            type = HEAP_TOPN;
+            n = max = ((HeapTopN<E>)topN).getN();
+        } else {
+            throw new IllegalArgumentException("Unsupported collection: " + topN.getClass().getName());
+        }
+
+        final File temp = new File(file.getPath() + ".tmp");
+        boolean moved = false;
+        try {
+            write(topN, type, n, max, codec, temp);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                temp.delete();
+            }
+        }
+    }
+
+    private static <E> void write(TopN<E> topN, int type, int n, int max, ElementCodec<? super E> codec, File temp)
+            throws IOException {
+        final FileOutputStream stream = new FileOutputStream(temp);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 65536));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(type);
+            out.writeInt(n);
+            out.writeInt(max);
+            out.writeInt(topN.size());
+            for (E elem : topN) {
+                codec.write(elem, out);
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Restores a collection from a checkpoint file, without exclusion strategy.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param file Checkpoint file
+     * @param codec Codec used to read each element
+     * @return A new collection equivalent to the saved one
+     * @throws IOException If an I/O error occurs, or the file is not a valid checkpoint
+     */
+    public static <E extends Comparable<E>> TopN<E> load(File file, ElementCodec<? extends E> codec)
+            throws IOException {
+        return load(file, codec, null);
+    }
+
+    /**
+     * Restores a collection from a checkpoint file, using the specified
+     * exclusion strategy for subsequent insertions.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param file Checkpoint file
+     * @param codec Codec used to read each element
+     * @param exclusionStrategy Exclusion strategy of the restored collection (or <code>null</code> if none)
+     * @return A new collection equivalent to the saved one
+     * @throws IOException If an I/O error occurs, or the file is not a valid checkpoint
+     * @throws IllegalArgumentException If the saved collection type does not support exclusion strategies
+     */
+    public static <E extends Comparable<E>> TopN<E> load(File file, ElementCodec<? extends E> codec,
+            ExclusionStrategy<E> exclusionStrategy) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint too large: " + file);
+        }
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        final ByteBufferDataInput in = new ByteBufferDataInput(buffer);
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new StreamCorruptedException("Invalid checkpoint: " + file);
+        }
+        final int type = in.readByte();
+        final int n = in.readInt();
+        final int max = in.readInt();
+        final int count = in.readInt();
+        // each element is encoded into at least one byte (see ElementCodec)
+        if (n < 0 || n > max || count < 0 || count > max || count > buffer.remaining()) {
+            throw new StreamCorruptedException("Invalid checkpoint header: " + file);
+        }
+        final Object[] elems = new Object[count];
+        for (int i = 0; i < elems.length; i++) {
+            elems[i] = codec.read(in);
+        }
+
+        final TopN<E> topN;
+        switch (type) {
+            case LIST_TOPN:
+                topN = new ListTopN<E>(n, exclusionStrategy);
+                break;
+            case TREE_TOPN:
+                topN = new TreeTopN<E>(n, max, exclusionStrategy);
+                break;
+            case HEAP_TOPN:
+                if (exclusionStrategy != null) {
+                    throw new IllegalArgumentException("Exclusion strategy not supported by HeapTopN");
+                }
+                topN = new HeapTopN<E>(n);
+                break;
+            default:
+                throw new StreamCorruptedException("Invalid checkpoint type: " + type);
+        }
+        topN.merge(new Snapshot<E>(elems));
+        return topN;
+    }
+
+    /**
+     * Read-only view of elements already sorted in descending order.
+     */
+    private static final class Snapshot<E> extends AbstractCollection<E> implements TopN<E> {
+        private static final long serialVersionUID = 1L;
+
+        private final Object[] elems;
+
+        Snapshot(Object[] elems) {
+            this.elems = elems;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Iterator<E> iterator() {
+            return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(elems)).iterator();
+        }
+
+        @Override
+        public int size() {
+            return elems.length;
+        }
+
+        @Override
+        public boolean merge(TopN<? extends E> other) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean wouldAccept(E elem) {
+            return false;
+        }
+    }
+}
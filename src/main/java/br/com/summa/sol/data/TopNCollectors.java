@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+/**
+ * Convenience class for collecting streams into {@link TopN} collections.<br>
+ * <br>
+ * Partial results are combined using {@link TopN#merge(TopN)}, so parallel
+ * streams are collected without adding every partial result again element by
+ * element. Equal elements keep their encounter order.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * TopN<Offer> best = offers.parallelStream().collect(TopNCollectors.topN(10));
+ * }</pre>
+ *
+ * @author Einar Saukas
+ */
+public final class TopNCollectors {
+
+    /**
+     * Prevents instantiation
+     */
+    private TopNCollectors() {
+    }
+
+    /**
+     * Returns a collector that keeps the greatest <code>N</code> elements only,
+     * using a {@link HeapTopN}.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param n Strict limit <code>N</code> on the number of elements collected
+     * @return Collector to a {@link TopN} collection
+     */
+    public static <E extends Comparable<E>> Collector<E, ?, TopN<E>> topN(final int n) {
+        return TopNCollectors.<E, TopN<E>>toTopN(() -> new HeapTopN<E>(n));
+    }
+
+    /**
+     * Returns a collector that keeps the greatest <code>N</code> elements,
+     * also keeping elements tied at the <code>N</code>th position up to a strict
+     * limit of <code>max</code> elements, using a {@link TreeTopN}.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param n Intended limit <code>N</code> on the number of elements collected
+     * @param max Strict maximum limit on the number of elements collected
+     * @return Collector to a {@link TopN} collection
+     */
+    public static <E extends Comparable<E>> Collector<E, ?, TopN<E>> topN(final int n, final int max) {
+        return TopNCollectors.<E, TopN<E>>toTopN(() -> new TreeTopN<E>(n, max));
+    }
+
+    /**
+     * Returns a collector into {@link TopN} collections provided by the
+     * specified supplier.
+     *
+     * @param <E> Type of elements stored in collection
+     * @param <T> Type of the resulting collection
+     * @param supplier Supplier of new empty collections
+     * @return Collector to a {@link TopN} collection
+     */
+    public static <E, T extends TopN<E>> Collector<E, ?, T> toTopN(Supplier<T> supplier) {
+        return Collector.of(supplier, (topN, elem) -> topN.add(elem), (left, right) -> {
+            left.merge(right);
+            return left;
+        }, Collector.Characteristics.IDENTITY_FINISH);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Convenience class for manipulating {@link TopN} collections.
+ *
+ * @author Einar Saukas
+ */
+public final class TopNs {
+
+    /**
+     * Prevents instantiation
+     */
+    private TopNs() {
+    }
+
+    /**
+     * Creates an empty collection limited to (greatest) <code>N</code> elements,
+     * choosing the most efficient implementation for its workload.
+     * See {@link #create(int, int, ExclusionStrategy)}.
+     *
+     * @param <E> Type of elements
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @return Empty collection limited to <code>N</code> elements
+     */
+    public static <E extends Comparable<E>> TopN<E> create(int n) {
+        return create(n, n, null);
+    }
+
+    /**
+     * Creates an empty collection limited to (greatest) <code>N</code> elements,
+     * keeping elements "tied" at the <code>N</code>th position up to a strict limit
+     * of <code>max</code> elements, and optionally with an "exclusion strategy".
+     * See {@link TreeTopN#TreeTopN(int, int, ExclusionStrategy)}.<br>
+     * <br>
+     * The returned collection delegates to {@link ListTopN} for small values of
+     * <code>N</code>. For larger values, it delegates to {@link HeapTopN} while
+     * most new elements are rejected, or {@link TreeTopN} while most new elements
+     * are admitted or the result is read frequently (or whenever <code>max &gt; N</code>,
+     * or there's an exclusion strategy), switching implementations at runtime
+     * according to the observed workload.<br>
+     * <br>
+     * Its iterators are not reliably fail-fast. While the current implementation
+     * is a {@link ListTopN} or a {@link TreeTopN}, changing this collection during
+     * an iteration makes the iterator throw
+     * {@link java.util.ConcurrentModificationException}. A {@link HeapTopN} iterates
+     * over a sorted snapshot instead, and an iterator created before switching
+     * implementations keeps returning the elements from before the switch, neither
+     * of them throwing. Therefore the collection should not be changed while
+     * iterating.
+     *
+     * @param <E> Type of elements
+     * @param n Intended limit <code>N</code> on the number of elements stored in this collection
+     * @param max Strict maximum limit on the number of elements stored in this collection
+     * @param exclusionStrategy Comparator strategy to check if 2 elements are mutually
+     * exclusive, or <code>null</code> for none
+     * @return Empty collection limited to <code>N</code> elements
+     */
+    public static <E extends Comparable<E>> TopN<E> create(int n, int max, ExclusionStrategy<E> exclusionStrategy) {
+        return new AdaptiveTopN<E>(n, max, exclusionStrategy);
+    }
+
+    /**
+     * Returns a read-only iterator over all elements from the specified collections,
+     * sorted in descending order. See {@link #merge(Iterable, int)}.
+     *
+     * @param <E> Type of elements
+     * @param sources Collections (or any iterables) sorted in descending order
+     * @return Read-only iterator over all elements, sorted in descending order
+     */
+    public static <E extends Comparable<E>> Iterator<E> merge(Iterable<? extends Iterable<? extends E>> sources) {
+        return merge(sources, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a read-only iterator over the greatest elements from the specified
+     * collections, sorted in descending order, up to the specified limit. For equal
+     * elements, the ones from earlier collections come first.<br>
+     * <br>
+     * Elements are merged lazily: the first element is available after
+     * <code>O(k)</code> operations for <code>k</code> collections, and each
+     * subsequent element takes <code>O(log k)</code> comparisons, without
+     * building any intermediate collection. Typical usage:
+     *
+     * <pre>{@code
+     * List<TopN<Score>> partial = ...; // one result per shard
+     * Iterator<Score> it = TopNs.merge(partial, 10);
+     * }</pre>
+     *
+     * @param <E> Type of elements
+     * @param sources Collections (or any iterables) sorted in descending order
+     * @param limit Maximum number of elements returned
+     * @return Read-only iterator over the greatest elements, sorted in descending order
+     */
+    public static <E extends Comparable<E>> Iterator<E> merge(Iterable<? extends Iterable<? extends E>> sources,
+            int limit) {
+        final List<Iterator<? extends E>> iterators = new ArrayList<Iterator<? extends E>>();
+        for (Iterable<? extends E> source : sources) {
+            iterators.add(source.iterator());
+        }
+        return new HeapMergingIterator<E>(iterators, limit);
+    }
+
+    /**
+     * Returns a read-only iterator over the greatest elements from the specified
+     * iterators, sorted in descending order, up to the specified limit. For equal
+     * elements, the ones from earlier iterators come first. See {@link #merge(Iterable, int)}.
+     *
+     * @param <E> Type of elements
+     * @param iterators Iterators sorted in descending order
+     * @param limit Maximum number of elements returned
+     * @return Read-only iterator over the greatest elements, sorted in descending order
+     */
+    public static <E extends Comparable<E>> Iterator<E> mergeIterators(
+            Iterable<? extends Iterator<? extends E>> iterators, int limit) {
+        return new HeapMergingIterator<E>(iterators, limit);
+    }
+}
@@ -17,12 +17,11 @@
 package br.com.summa.sol.data;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 
 /**
  * A generic collection limited to size <code>N</code>. If more than <code>N</code>
@@ -38,7 +37,14 @@ import java.util.TreeMap;
  * than <code>max</code> elements in this collection).<br>
  * <br>
  * This collection is optimized for large values of <code>N</code>, keeping its
- * elements stored in a <code>TreeMap</code> of <code>LinkedList</code>s. For
+ * elements stored in a balanced binary search tree indexed by the oldest element
+ * of each group of "tied" elements. The other elements in each group are stored in
+ * a compact array, allocated only when the group actually has more than one element,
+ * so distinct elements don't require any storage besides the tree node itself. Each
+ * node also keeps the number of elements in its subtree, so that finding the rank
+ * of an element, or the elements at certain ranks, takes <code>O(log N)</code>
+ * operations (see {@link #rank(Comparable)}, {@link #select(int)} and
+ * {@link #subRange(int, int)}). For
  * small values of <code>N</code>, use {@link ListTopN} instead, unless the
  * distinction between <code>N</code> and <code>max</code> provided by
  * {@link TreeTopN} is really needed.
@@ -48,12 +54,15 @@ import java.util.TreeMap;
  * @author Einar Saukas
  */
 public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
 
     private int n;
     private int max;
-    private TreeMap<E, LinkedList<E>> data = new TreeMap<E, LinkedList<E>>();
-    private int size = 0;
+    private final RankTree<E> data = new RankTree<E>();
+    private final ExclusionStrategy<E> exclusionStrategy;
+    private final ExclusionIndex<E> exclusionIndex;
+    private transient ThresholdListener<? super E> thresholdListener = null;
+    private transient E lastThreshold = null;
 
     /**
      * Constructs an empty collection limited strictly to (greatest) <code>N</code>
@@ -66,6 +75,18 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
         this(n, n);
     }
 
+    /**
+     * Constructs an empty collection limited strictly to (greatest) <code>N</code>
+     * elements, with an "exclusion strategy". This works exactly like
+     * {@link TreeTopN#TreeTopN(int, int, ExclusionStrategy)} when <code>max = N</code>.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param exclusionStrategy Comparator strategy to check if 2 elements are mutually exclusive
+     */
+    public TreeTopN(int n, ExclusionStrategy<E> exclusionStrategy) {
+        this(n, n, exclusionStrategy);
+    }
+
     /**
      * Constructs an empty collection limited to (greatest) <code>N</code> elements. If
      * there are multiple elements "tied" at the <code>N</code>th position, they will be
@@ -83,24 +104,132 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
      * When <code>max = N</code> this collection will enforce a strict limit of
      * <code>N</code> (greatest) elements, discarding the others. Therefore it will
      * work exactly like {@link ListTopN} except it will be more efficient for larger
-     * values of <code>N</code>.
+     * values of <code>N</code> (above 512 elements, according to {@code TopNBenchmark}).
+     * Use {@link TopNs#create(int, int, ExclusionStrategy)} to choose the most efficient
+     * implementation automatically.
      *
      * @param n Intended limit <code>N</code> on the number of elements stored in this collection
      * @param max Strict maximum limit on the number of elements stored in this collection
      */
     public TreeTopN(int n, int max) {
+        this(n, max, null);
+    }
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements, keeping
+     * elements "tied" at the <code>N</code>th position up to a strict limit of <code>max</code>
+     * elements, as in {@link TreeTopN#TreeTopN(int, int)}. It also defines an "exclusion
+     * strategy" such that, if any 2 elements are evaluated as "mutually exclusive", only the
+     * greater element will be stored.<br>
+     * <br>
+     * If the specified strategy is a {@link KeyExclusionStrategy}, elements will be indexed
+     * by key, so that checking a new element for mutual exclusion takes a single lookup.
+     * If it's a {@link LshExclusionStrategy}, elements will be indexed by bucket keys, so
+     * that the new element will be only checked against elements sharing a bucket key.
+     * Otherwise the new element will be checked against each stored element in turn.
+     *
+     * @param n Intended limit <code>N</code> on the number of elements stored in this collection
+     * @param max Strict maximum limit on the number of elements stored in this collection
+     * @param exclusionStrategy Comparator strategy to check if 2 elements are mutually exclusive
+     */
+    public TreeTopN(int n, int max, ExclusionStrategy<E> exclusionStrategy) {
         this.n = n;
         this.max = max;
+        this.exclusionStrategy = exclusionStrategy;
+        this.exclusionIndex = ExclusionIndex.of(exclusionStrategy);
+    }
+
+    int getN() {
+        return n;
+    }
+
+    int getMax() {
+        return max;
+    }
+
+    ExclusionStrategy<E> getExclusionStrategy() {
+        return exclusionStrategy;
+    }
+
+    /**
+     * Defines a listener to be notified whenever the value returned by
+     * {@link #threshold()} changes. This listener is not serialized.
+     *
+     * @param listener Listener to be notified, or <code>null</code> for none
+     */
+    public void setThresholdListener(ThresholdListener<? super E> listener) {
+        this.thresholdListener = listener;
+        this.lastThreshold = threshold();
+    }
+
+    private void thresholdChanged() {
+        if (thresholdListener != null) {
+            final E current = threshold();
+            if (current != lastThreshold) {
+                lastThreshold = current;
+                thresholdListener.thresholdChanged(current);
+            }
+        }
     }
 
     private void insertSorted(E elem) {
-        List<E> list = data.get(elem);
-        if (list != null) {
-            list.add(elem);
-        } else {
-            data.put(elem, new LinkedList<E>());
+        data.add(elem);
+        if (exclusionIndex != null) {
+            exclusionIndex.put(elem);
+        }
+    }
+
+    private void removeSorted(E elem) {
+        data.remove(elem);
+        if (exclusionIndex != null) {
+            exclusionIndex.remove(elem);
         }
-        size++;
+    }
+
+    private E findExclusive(E elem) {
+        if (exclusionIndex != null) {
+            return exclusionIndex.find(elem);
+        }
+        for (E other : this) {
+            if (exclusionStrategy.mutuallyExclusive(elem, other)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    private void unindex(RankTree.Node<E> group) {
+        if (exclusionIndex != null) {
+            for (int i = 0; i < group.count(); i++) {
+                exclusionIndex.remove(group.get(i));
+            }
+        }
+    }
+
+    /**
+     * Makes room for the specified element, if needed, by removing lower elements.
+     *
+     * @return <code>false</code> if the specified element shouldn't be added
+     */
+    private boolean admit(E elem) {
+        final int size = data.size();
+        if (size >= n) {
+            RankTree.Node<E> lowest = data.lowest();
+            final int cmp = lowest.key.compareTo(elem);
+            if (cmp < 0) {
+                if (size - lowest.ties.size() == n) {
+                    unindex(data.removeLowestGroup());
+                } else if (size >= max) {
+                    E removed = data.removeLowest();
+                    if (exclusionIndex != null) {
+                        exclusionIndex.remove(removed);
+                    }
+                }
+            } else if (cmp > 0 || size >= max) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -119,29 +248,75 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
      */
     @Override
     public boolean add(E elem) {
-        if (size >= n) {
-            Entry<E, LinkedList<E>> lowest = data.firstEntry();
-            final int cmp = lowest.getKey().compareTo(elem);
-            if (cmp < 0) {
-                if (size - lowest.getValue().size() == n) {
-                    size -= lowest.getValue().size()+1;
-                    data.pollFirstEntry();
-                } else if (size >= max) {
-                    if (lowest.getValue().size() > 0) {
-                        lowest.getValue().pollLast();
-                    } else {
-                        data.pollFirstEntry();
-                    }
-                    size--;
+        if (!addElement(elem)) {
+            return false;
+        }
+        thresholdChanged();
+        return true;
+    }
+
+    private boolean addElement(E elem) {
+        if (exclusionStrategy != null) {
+            if (data.size() >= n) {
+                final int cmp = data.lowest().key.compareTo(elem);
+                if (cmp > 0 || (cmp == 0 && data.size() >= max)) {
+                    return false;
                 }
-            } else if (cmp > 0 || size >= max) {
-                return false;
             }
+            E other = findExclusive(elem);
+            if (other != null) {
+                if (other.compareTo(elem) >= 0) {
+                    return false;
+                }
+                removeSorted(other);
+                if (admit(elem)) {
+                    insertSorted(elem);
+                }
+                return true;
+            }
+        }
+        if (!admit(elem)) {
+            return false;
         }
         insertSorted(elem);
         return true;
     }
 
+    /**
+     * Returns the lowest element in this collection if it already contains (at least)
+     * <code>N</code> elements, or <code>null</code> otherwise (so any element may be
+     * added). New elements lower than this threshold will be rejected, and new elements
+     * equal to it will be accepted only while this collection contains less than
+     * <code>max</code> elements.
+     *
+     * @return The current admission threshold, or <code>null</code> if there's none
+     */
+    public E threshold() {
+        return data.size() >= n && data.size() > 0 ? data.lowest().key : null;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * without actually adding it. This operation takes <code>O(log N)</code> operations.
+     * See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        if (data.size() < n) {
+            return true;
+        }
+        if (data.size() == 0) {
+            return false;
+        }
+        final int cmp = data.lowest().key.compareTo(elem);
+        return cmp < 0 || (cmp == 0 && data.size() < max);
+    }
+
     /**
      * Adds all elements from the specified collection to this collection.
      *
@@ -159,32 +334,109 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
         return changed;
     }
 
+    /**
+     * Merges all elements from the specified collection into this collection,
+     * rebuilding it directly from the sorted contents of both collections in
+     * <code>O(N)</code> operations.
+     * See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
     @Override
-    public Iterator<E> iterator() {
-        return new Iterator<E>() {
-            Iterator<Entry<E, LinkedList<E>>> iter = data.descendingMap().entrySet().iterator();
-            private Iterator<E> subIter = null;
-
-            @Override
-            public E next() {
-                if (subIter != null && subIter.hasNext()) {
-                    return subIter.next();
-                }
-                Entry<E, LinkedList<E>> entry = iter.next();
-                subIter = entry.getValue().iterator();
-                return entry.getKey();
+    public boolean merge(TopN<? extends E> other) {
+        if (exclusionStrategy != null) {
+            return addAll(other);
+        }
+        final RankTree.Builder<E> merged = new RankTree.Builder<E>();
+        final MergingIterator<E> it = new MergingIterator<E>(iterator(), other.iterator());
+        boolean changed = false;
+        int count = 0;
+        E lowest = null;
+        while (count < max && it.hasNext()) {
+            final E elem = it.next();
+            final boolean tied = lowest != null && lowest.compareTo(elem) == 0;
+            if (count >= n && !tied) {
+                break;
             }
+            merged.add(elem);
+            lowest = elem;
+            count++;
+            changed = changed || it.lastFromSecond();
+        }
+        if (changed) {
+            data.replace(merged.build());
+            thresholdChanged();
+        }
+        return changed;
+    }
 
-            @Override
-            public boolean hasNext() {
-                return (subIter != null && subIter.hasNext()) || iter.hasNext();
-            }
+    @Override
+    public Iterator<E> iterator() {
+        return data.iterator();
+    }
 
-            @Override
-            public void remove() {
-                throw new UnsupportedOperationException();
-            }
-        };
+    /**
+     * Returns the rank of the specified element in this collection, that is, the
+     * number of elements in this collection greater than it. If this collection
+     * contains elements equal to the specified element, the result is the position
+     * of the oldest of them in descending order, as in {@link #select(int)}.
+     * Otherwise it's the position where the specified element would be stored.<br>
+     * <br>
+     * This operation takes <code>O(log N)</code> comparisons.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return The number of elements in this collection greater than the specified element
+     */
+    public int rank(E elem) {
+        return data.rank(elem);
+    }
+
+    /**
+     * Returns the element at the specified position in descending order, thus
+     * the element with rank <code>k</code> (starting from 0).<br>
+     * <br>
+     * This operation takes <code>O(log N)</code> operations.
+     *
+     * @param k Position of the element in descending order
+     *
+     * @return The element at the specified position in descending order
+     *
+     * @throws IndexOutOfBoundsException If <code>k</code> is negative, or not lower than {@link #size()}
+     */
+    public E select(int k) {
+        return data.select(k);
+    }
+
+    /**
+     * Returns a read-only list containing the elements from position
+     * <code>fromRank</code> (inclusive) to <code>toRank</code> (exclusive) in
+     * descending order, such as a single page of a ranking. The returned list is
+     * a snapshot, that won't reflect later changes in this collection.<br>
+     * <br>
+     * This operation takes <code>O(log N + toRank - fromRank)</code> operations.
+     *
+     * @param fromRank Position of the first element in descending order (inclusive)
+     * @param toRank Position of the last element in descending order (exclusive)
+     *
+     * @return A read-only list containing the elements in the specified range of positions
+     *
+     * @throws IndexOutOfBoundsException If <code>fromRank</code> is negative, <code>toRank</code>
+     * is greater than {@link #size()}, or <code>fromRank</code> is greater than <code>toRank</code>
+     */
+    public List<E> subRange(int fromRank, int toRank) {
+        if (fromRank < 0 || toRank > data.size() || fromRank > toRank) {
+            throw new IndexOutOfBoundsException("Invalid range: " + fromRank + " to " + toRank);
+        }
+        final List<E> result = new ArrayList<E>(toRank - fromRank);
+        final Iterator<E> it = data.iterator(fromRank);
+        while (result.size() < toRank - fromRank) {
+            result.add(it.next());
+        }
+        return Collections.unmodifiableList(result);
     }
 
     /**
@@ -194,7 +446,7 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
      */
      @Override
      public int size() {
-        return size;
+        return data.size();
     }
 
     /**
@@ -204,7 +456,7 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
      */
      @Override
      public boolean isEmpty() {
-         return size == 0;
+         return data.size() == 0;
      }
 
      /**
@@ -214,7 +466,10 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
      @Override
      public void clear() {
          data.clear();
-         size = 0;
+         if (exclusionIndex != null) {
+             exclusionIndex.clear();
+         }
+         thresholdChanged();
      }
 
      /**
@@ -230,10 +485,8 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
       */
      @Override
      public boolean contains(Object obj) {
-         Entry<E, LinkedList<E>> entry = data.floorEntry((E)obj);
-         return entry != null &&
-                 (entry.getKey().equals(obj) ||
-                         (entry.getKey().compareTo((E)obj) == 0 && entry.getValue().contains(obj)));
+         RankTree.Node<E> group = data.find((E)obj);
+         return group != null && (group.key.equals(obj) || group.ties.contains(obj));
      }
 
      /**
@@ -257,30 +510,21 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
 
      /**
       * Returns an array containing all top <code>N</code> elements in
-      * this collection, sorted in descending order. See
-      * {@link java.util.LinkedList#toArray()}.
+      * this collection, sorted in descending order.
       *
       * @return An array containing all top <code>N</code> elements in this
       * collection, sorted in descending order
       */
      @Override
      public Object[] toArray() {
-         Object[] array = new Object[size];
-         int i = 0;
-         for (Entry<E, LinkedList<E>> entry : data.descendingMap().entrySet()) {
-             array[i++] = entry.getKey();
-             for (E elem : entry.getValue()) {
-                 array[i++] = elem;
-             }
-         }
-         return array;
+         return toArray(new Object[data.size()]);
      }
 
      /**
       * Returns an array containing all top <code>N</code> elements in
       * this collection, sorted in descending order; the runtime type of the
       * returned array is that of the specified array.
-      * See {@link java.util.LinkedList#toArray(Object[])}.
+      * See {@link java.util.Collection#toArray(Object[])}.
       *
       * @param array The array into which all top <code>N</code> elements in
       * this collection are to be stored, if it is big enough; otherwise, a
@@ -290,16 +534,15 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
       * collection, sorted in descending order
       */
      @Override
+     @SuppressWarnings("unchecked")
      public <T> T[] toArray(T[] array) {
+         final int size = data.size();
          if (array.length < size) {
              array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
          }
          int i = 0;
-         for (Entry<E, LinkedList<E>> entry : data.descendingMap().entrySet()) {
-             array[i++] = (T)entry.getKey();
-             for (E elem : entry.getValue()) {
-                 array[i++] = (T)elem;
-             }
+         for (E elem : data) {
+             array[i++] = (T)elem;
          }
          if (array.length > size) {
              array[size] = null;
@@ -344,14 +587,26 @@ public class TreeTopN<E extends Comparable<E>> implements TopN<E> {
          }
          if (obj instanceof TreeTopN) {
              final TreeTopN<?> that = (TreeTopN<?>)obj;
-             return n == that.n && max == that.max &&
-                     size == that.size && data.equals(that.data);
+             if (n != that.n || max != that.max || data.size() != that.data.size()) {
+                 return false;
+             }
+             final Iterator<?> it = that.iterator();
+             for (E elem : this) {
+                 if (!elem.equals(it.next())) {
+                     return false;
+                 }
+             }
+             return true;
          }
          return false;
      }
 
      @Override
      public int hashCode() {
-         return data.hashCode();
+         int hash = 1;
+         for (E elem : this) {
+             hash = 31*hash + elem.hashCode();
+         }
+         return hash;
      }
 }
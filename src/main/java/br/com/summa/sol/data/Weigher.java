@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.Serializable;
+
+/**
+ * Strategy to compute the weight of cache entries, used by {@link LruCache}
+ * to limit the total weight of its entries (for instance, their approximate
+ * size in bytes) instead of their number. It's {@link Serializable}, like the
+ * cache itself, so a lambda expression used as weigher is serializable too.
+ *
+ * @param <K> The type of keys
+ * @param <V> The type of values
+ *
+ * @author Einar Saukas
+ */
+public interface Weigher<K, V> extends Serializable {
+
+    /**
+     * Returns the weight of the specified entry. It's only invoked when the
+     * entry is added or its value is replaced.
+     *
+     * @param key Key of this entry
+     * @param value Value of this entry
+     * @return Weight of this entry, which must not be negative
+     */
+    long weigh(K key, V value);
+}
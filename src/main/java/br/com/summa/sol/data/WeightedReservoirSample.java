@@ -0,0 +1,429 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A generic collection strictly limited to size <code>K</code>, keeping a weighted
+ * random sample (without replacement) of all elements added to it. The probability
+ * of each element being selected is proportional to its weight, as provided by a
+ * weighting function when it's added. Only positive weights are considered: elements
+ * with zero or negative weight are never stored.<br>
+ * <br>
+ * This collection follows "Algorithm A-ExpJ": each stored element has a random key
+ * <code>u^(1/weight)</code>, and the sample keeps the elements with greatest keys.
+ * Instead of drawing a random key for each added element, it computes directly how
+ * much weight should be skipped before the next element is stored. Therefore each
+ * element only takes a subtraction, and random numbers are only drawn for stored
+ * elements, which happens <code>O(K log(W/K))</code> times for total weight
+ * <code>W</code>. Stored keys are kept in a min-heap (in logarithmic scale), so
+ * storing an element takes <code>O(log K)</code> operations. Samples computed
+ * separately (for instance, one per partition) can be combined with
+ * {@link #merge(WeightedReservoirSample)}.<br>
+ * <br>
+ * When serialized, the weighting function is kept only if it's {@link Serializable}.
+ * Without it, a deserialized sample still accepts elements with explicit weights
+ * (see {@link #add(Object, double)}), but {@link #add(Object)} throws
+ * {@link IllegalStateException}.<br>
+ * <br>
+ * Elements are returned in no particular order. Typical usage:
+ *
+ * <pre>{@code
+ * WeightedReservoirSample<Order> sample = new WeightedReservoirSample<Order>(1000, Order::getAmount);
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class WeightedReservoirSample<E> implements Collection<E>, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int k;
+    private final Object[] sample;
+    private final double[] keys;
+    private transient ToDoubleFunction<? super E> weigher;
+    private final Random random;
+    private int size = 0;
+    private long count = 0;
+    private double jump = 0;
+
+    /**
+     * Constructs an empty collection keeping a weighted random sample of <code>K</code>
+     * elements.
+     *
+     * @param k Strict limit <code>K</code> on the number of elements stored in this collection
+     * @param weigher Function providing the weight of each element when added
+     */
+    public WeightedReservoirSample(int k, ToDoubleFunction<? super E> weigher) {
+        this(k, weigher, new Random());
+    }
+
+    /**
+     * Constructs an empty collection keeping a weighted random sample of <code>K</code>
+     * elements, using the specified source of randomness.
+     *
+     * @param k Strict limit <code>K</code> on the number of elements stored in this collection
+     * @param weigher Function providing the weight of each element when added
+     * @param random Source of randomness
+     */
+    public WeightedReservoirSample(int k, ToDoubleFunction<? super E> weigher, Random random) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Invalid sample size");
+        }
+        this.k = k;
+        this.sample = new Object[k];
+        this.keys = new double[k];
+        this.weigher = weigher;
+        this.random = random;
+    }
+
+    // uniform random number in the open interval (0, 1)
+    private double nextDouble() {
+        double u;
+        do {
+            u = random.nextDouble();
+        } while (u == 0);
+        return u;
+    }
+
+    private void swap(int i, int j) {
+        final Object elem = sample[i];
+        sample[i] = sample[j];
+        sample[j] = elem;
+        final double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            final int parent = (i-1) >>> 1;
+            if (keys[parent] <= keys[i]) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int child = 2*i+1;
+            if (child >= size) {
+                break;
+            }
+            if (child+1 < size && keys[child+1] < keys[child]) {
+                child++;
+            }
+            if (keys[i] <= keys[child]) {
+                break;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void insert(Object elem, double key) {
+        if (size < k) {
+            sample[size] = elem;
+            keys[size] = key;
+            siftUp(size++);
+        } else {
+            sample[0] = elem;
+            keys[0] = key;
+            siftDown(0);
+        }
+        if (size == k) {
+            // total weight to skip before the next stored element
+            jump = Math.log(nextDouble()) / keys[0];
+        }
+    }
+
+    /**
+     * Adds the specified element to the collection, if it's selected for the
+     * random sample. See {@link #add(Object, double)}.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if the element was stored, <code>false</code> otherwise
+     *
+     * @throws IllegalStateException If the weighting function was lost in serialization
+     */
+    @Override
+    public boolean add(E elem) {
+        if (weigher == null) {
+            throw new IllegalStateException("Weighting function was not serialized");
+        }
+        return add(elem, weigher.applyAsDouble(elem));
+    }
+
+    /**
+     * Adds the specified element to the collection with the specified weight
+     * (instead of using the weighting function), if it's selected for the random
+     * sample. Otherwise it's just counted.
+     *
+     * @param elem Element to be added
+     * @param weight Weight of this element
+     *
+     * @return <code>true</code> if the element was stored, <code>false</code> otherwise
+     */
+    public boolean add(E elem, double weight) {
+        count++;
+        if (!(weight > 0)) {
+            return false;
+        }
+        if (size < k) {
+            insert(elem, Math.log(nextDouble()) / weight);
+            return true;
+        }
+        jump -= weight;
+        if (jump > 0) {
+            return false;
+        }
+        // the key of this element must exceed the lowest stored key
+        final double t = Math.exp(weight * keys[0]);
+        insert(elem, Math.log(t + (1-t) * nextDouble()) / weight);
+        return true;
+    }
+
+    /**
+     * Returns the total weight of subsequent elements that will be discarded
+     * without being stored. Producers may use it to avoid building elements that
+     * would be discarded anyway.
+     *
+     * @return Total weight of subsequent elements that will not be stored
+     */
+    public double skipWeight() {
+        return size < k ? 0 : jump;
+    }
+
+    /**
+     * Returns the number of elements added to this collection, either stored or not.
+     *
+     * @return The number of elements added to this collection
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was stored), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges the specified sample into this one, so that the result is a weighted
+     * random sample of all elements added to both. Since each stored element keeps
+     * its random key, this simply keeps the elements with greatest keys from both
+     * samples. The specified sample must have been computed independently from
+     * this one, and not used anymore afterwards.
+     *
+     * @param other Sample to be merged, which is not modified
+     */
+    public void merge(WeightedReservoirSample<? extends E> other) {
+        for (int i = 0; i < other.size; i++) {
+            if (size < k || other.keys[i] > keys[0]) {
+                insert(other.sample[i], other.keys[i]);
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * Returns a read-only iterator over all elements in this collection, in no
+     * particular order.
+     *
+     * @return A read-only iterator over all elements in this collection
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        return Collections.unmodifiableList((List<E>)(List<?>)Arrays.asList(sample).subList(0, size)).iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes all elements from this collection, and resets the number of
+     * added elements. The collection will be empty afterwards.
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(sample, 0, size, null);
+        size = 0;
+        count = 0;
+        jump = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element.
+     * More formally, returns <code>true</code> if and only if this list contains
+     * at least one element <code>e</code> such that
+     * <code>(obj==null ? e==null : obj.equals(e))</code>.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        for (int i = 0; i < size; i++) {
+            if (obj == null ? sample[i] == null : obj.equals(sample[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        for (Object obj : coll) {
+            if (!contains(obj)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in no
+     * particular order.
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    public Object[] toArray() {
+        return Arrays.copyOf(sample, size);
+    }
+
+    /**
+     * Returns an array containing all elements in this collection, in no
+     * particular order; the runtime type of the returned array is that of the
+     * specified array. See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all elements in this collection are to
+     * be stored, if it is big enough; otherwise, a new array of the same runtime
+     * type will be allocated for this purpose
+     *
+     * @return An array containing all elements in this collection
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] toArray(T[] array) {
+        if (array.length < size) {
+            array = (T[])Array.newInstance(array.getClass().getComponentType(), size);
+        }
+        System.arraycopy(sample, 0, array, 0, size);
+        if (array.length > size) {
+            array[size] = null;
+        }
+        return array;
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(weigher instanceof Serializable ? weigher : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        weigher = (ToDoubleFunction<? super E>)in.readObject();
+    }
+}
@@ -0,0 +1,369 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A generic collection strictly limited to size <code>N</code>, considering
+ * only elements added within a sliding time window. If more than <code>N</code>
+ * elements were added within this window, it will keep the greatest <code>N</code>
+ * elements only, discarding the others.<br>
+ * <br>
+ * The window is divided into a fixed number of time buckets, each one keeping
+ * the greatest <code>N</code> elements added during its own time interval in a
+ * {@link HeapTopN}. Whenever time advances into a new interval, the oldest bucket
+ * is discarded and reused, so expiring elements never requires examining them
+ * one by one. Reading the current top <code>N</code> merges the partial results
+ * from all live buckets, and this merged result is reused until the collection
+ * changes or another bucket expires. Therefore the window slides in steps of one
+ * bucket: it covers the current (partial) bucket interval plus all previous
+ * intervals still within the specified window length.<br>
+ * <br>
+ * Duplicate elements are allowed. For 2 arbitrary elements <code>x</code> and
+ * <code>y</code> such that <code>x.compareTo(y) == 0</code>, the oldest element
+ * in this collection will be treated as greater.<br>
+ * <br>
+ * If the clock moves backwards, time is considered stopped until the clock
+ * catches up, so newer buckets are never discarded. The clock is only serialized
+ * if it's {@link Serializable}, otherwise a deserialized collection uses the
+ * system clock.<br>
+ * <br>
+ * Typical usage:
+ *
+ * <pre>{@code
+ * // top 10 in the last 5 minutes, expiring in steps of 10 seconds
+ * WindowedTopN<Score> recent = new WindowedTopN<Score>(10, 5, TimeUnit.MINUTES, 30);
+ * }</pre>
+ *
+ * @param <E> The type of elements stored in this collection
+ *
+ * @author Einar Saukas
+ */
+public class WindowedTopN<E extends Comparable<E>> implements TopN<E> {
+    private static final long serialVersionUID = 1L;
+
+    private final int n;
+    private final long bucketMillis;
+    private final HeapTopN<E>[] buckets;
+    private final long[] epochs;
+    private transient Clock clock;
+    private long lastEpoch = Long.MIN_VALUE;
+    private transient HeapTopN<E> current = null;
+    private transient long currentEpoch;
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements
+     * added within the specified sliding time window, according to the system clock.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param window Length of the time window
+     * @param unit Time unit of the window length
+     * @param buckets Number of buckets dividing the time window
+     */
+    public WindowedTopN(int n, long window, TimeUnit unit, int buckets) {
+        this(n, window, unit, buckets, Clock.systemUTC());
+    }
+
+    /**
+     * Constructs an empty collection limited to (greatest) <code>N</code> elements
+     * added within the specified sliding time window, according to the specified clock.
+     *
+     * @param n Strict limit <code>N</code> on the number of elements stored in this collection
+     * @param window Length of the time window
+     * @param unit Time unit of the window length
+     * @param buckets Number of buckets dividing the time window
+     * @param clock Clock providing the current time
+     */
+    @SuppressWarnings("unchecked")
+    public WindowedTopN(int n, long window, TimeUnit unit, int buckets, Clock clock) {
+        if (buckets <= 0 || unit.toMillis(window) < buckets) {
+            throw new IllegalArgumentException("Invalid window or number of buckets");
+        }
+        this.n = n;
+        this.bucketMillis = unit.toMillis(window) / buckets;
+        this.buckets = (HeapTopN<E>[])new HeapTopN<?>[buckets];
+        this.epochs = new long[buckets];
+        this.clock = clock;
+        for (int i = 0; i < buckets; i++) {
+            this.buckets[i] = new HeapTopN<E>(n);
+        }
+        Arrays.fill(epochs, Long.MIN_VALUE);
+    }
+
+    private long epoch() {
+        // never goes back in time
+        lastEpoch = Math.max(lastEpoch, Math.floorDiv(clock.millis(), bucketMillis));
+        return lastEpoch;
+    }
+
+    /**
+     * Returns the bucket for the current time interval, discarding any expired
+     * elements it still contained.
+     */
+    private HeapTopN<E> bucket(long epoch) {
+        final int i = (int)Math.floorMod(epoch, (long)buckets.length);
+        if (epochs[i] != epoch) {
+            buckets[i].clear();
+            epochs[i] = epoch;
+        }
+        return buckets[i];
+    }
+
+    /**
+     * Returns the merged contents of all live buckets.
+     */
+    private HeapTopN<E> current() {
+        final long epoch = epoch();
+        if (current == null || currentEpoch != epoch) {
+            final HeapTopN<E> result = new HeapTopN<E>(n);
+            // merge oldest buckets first, so they win ties
+            for (long e = epoch-buckets.length+1; e <= epoch; e++) {
+                final int i = (int)Math.floorMod(e, (long)buckets.length);
+                if (epochs[i] == e) {
+                    result.merge(buckets[i]);
+                }
+            }
+            current = result;
+            currentEpoch = epoch;
+        }
+        return current;
+    }
+
+    /**
+     * Attempts to add the specified element to the collection, within the current
+     * time interval. If the collection already contains <code>N</code> elements
+     * added within the same interval, and the specified new element is not greater
+     * than any of them, it won't be added.
+     *
+     * @param elem Element to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if the element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean add(E elem) {
+        if (!bucket(epoch()).add(elem)) {
+            return false;
+        }
+        current = null;
+        return true;
+    }
+
+    /**
+     * Checks if the specified element could be added to this collection right now,
+     * within the current time interval, without actually adding it. See {@link TopN#wouldAccept(Object)}.
+     *
+     * @param elem Element to be evaluated
+     *
+     * @return <code>false</code> if the specified element would certainly be rejected,
+     * <code>true</code> otherwise
+     */
+    @Override
+    public boolean wouldAccept(E elem) {
+        final long epoch = epoch();
+        final int i = (int)Math.floorMod(epoch, (long)buckets.length);
+        return epochs[i] == epoch ? buckets[i].wouldAccept(elem) : n > 0;
+    }
+
+    /**
+     * Adds all elements from the specified collection to this collection.
+     *
+     * @param coll Collection containing elements to be added
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean addAll(Collection<? extends E> coll) {
+        boolean changed = false;
+        for (E elem : coll) {
+            changed = add(elem) || changed;
+        }
+        return changed;
+    }
+
+    /**
+     * Merges all elements from the specified collection into this collection,
+     * within the current time interval. See {@link TopN#merge(TopN)}.
+     *
+     * @param other Collection containing elements to be merged, which is not modified
+     *
+     * @return <code>true</code> if this collection changed as a result of the call
+     * (thus if at least one element was successfully added), <code>false</code> otherwise
+     */
+    @Override
+    public boolean merge(TopN<? extends E> other) {
+        if (!bucket(epoch()).merge(other)) {
+            return false;
+        }
+        current = null;
+        return true;
+    }
+
+    /**
+     * Returns a read-only iterator over all top <code>N</code> elements in
+     * this collection within the current time window, sorted in descending order.
+     *
+     * @return A read-only iterator over all top <code>N</code> elements in
+     * this collection, sorted in descending order
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return current().iterator();
+    }
+
+    /**
+     * Returns the number of elements in this collection within the current time window.
+     *
+     * @return The number of elements in this collection
+     */
+    @Override
+    public int size() {
+        return current().size();
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains no elements within
+     * the current time window.
+     *
+     * @return <code>true</code> if this collection contains no elements
+     */
+    @Override
+    public boolean isEmpty() {
+        return current().isEmpty();
+    }
+
+    /**
+     * Removes all elements from this collection. The collection will be empty
+     * afterwards.
+     */
+    @Override
+    public void clear() {
+        for (HeapTopN<E> bucket : buckets) {
+            bucket.clear();
+        }
+        Arrays.fill(epochs, Long.MIN_VALUE);
+        current = null;
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains the specified element
+     * within the current time window. See {@link HeapTopN#contains(Object)}.
+     *
+     * @param obj Element whose presence in this collection is to be tested
+     *
+     * @return <code>true</code> if this collection contains the specified element
+     */
+    @Override
+    public boolean contains(Object obj) {
+        return current().contains(obj);
+    }
+
+    /**
+     * Returns <code>true</code> if this collection contains all elements from the
+     * specified collection within the current time window.
+     *
+     * @param coll Collection to be checked for containment in this collection
+     *
+     * @return <code>true</code> if this collection contains all elements from the
+     * specified collection, <code>false</code> otherwise
+     */
+    @Override
+    public boolean containsAll(Collection<?> coll) {
+        return current().containsAll(coll);
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in this
+     * collection within the current time window, sorted in descending order.
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public Object[] toArray() {
+        return current().toArray();
+    }
+
+    /**
+     * Returns an array containing all top <code>N</code> elements in this
+     * collection within the current time window, sorted in descending order;
+     * the runtime type of the returned array is that of the specified array.
+     * See {@link java.util.Collection#toArray(Object[])}.
+     *
+     * @param array The array into which all top <code>N</code> elements in
+     * this collection are to be stored, if it is big enough; otherwise, a
+     * new array of the same runtime type will be allocated for this purpose
+     *
+     * @return An array containing all top <code>N</code> elements in this
+     * collection, sorted in descending order
+     */
+    @Override
+    public <T> T[] toArray(T[] array) {
+        return current().toArray(array);
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean remove(Object obj) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean removeAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Unsupported operation
+     *
+     * @throws UnsupportedOperationException Unsupported operation
+     */
+    @Override
+    public boolean retainAll(Collection<?> coll) {
+        throw new UnsupportedOperationException();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(clock instanceof Serializable ? clock : null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        final Clock serialized = (Clock)in.readObject();
+        clock = serialized != null ? serialized : Clock.systemUTC();
+    }
+}
@@ -44,6 +44,10 @@ public abstract class AbstractTopNTest {
     protected void validate(int n, List<Integer> input, List<Integer> expected) {
         validate(new ListTopN<Integer>(n), input, expected);
         validate(new TreeTopN<Integer>(n), input, expected);
+        validate(new HeapTopN<Integer>(n), input, expected);
+        validate(new ConcurrentTopN<Integer>(n), input, expected);
+        validate(new BufferedTopN<Integer>(n), input, expected);
+        validate(TopNs.<Integer>create(n), input, expected);
     }
 
     protected List<Integer> validate(TopN<Integer> topN, List<Integer> input,
@@ -62,6 +66,10 @@ public abstract class AbstractTopNTest {
     protected void validateRepetitionOrder(int n, List<Integer> input, List<Integer> expected) {
         validateRepetitionOrder(new ListTopN<Integer>(n), input, expected);
         validateRepetitionOrder(new TreeTopN<Integer>(n), input, expected);
+        validateRepetitionOrder(new HeapTopN<Integer>(n), input, expected);
+        validateRepetitionOrder(new ConcurrentTopN<Integer>(n), input, expected);
+        validateRepetitionOrder(new BufferedTopN<Integer>(n), input, expected);
+        validateRepetitionOrder(TopNs.<Integer>create(n), input, expected);
     }
 
     protected void validateRepetitionOrder(TopN<Integer> topN, List<Integer> input,
@@ -0,0 +1,249 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void evictLeastRecentlyAccessed() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3, EvictionPolicy.LRU);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+        cache.put("d", 4);
+        validate(cache, "a", "c", "d");
+        cache.get("c");
+        cache.put("e", 5);
+        validate(cache, "c", "d", "e");
+    }
+
+    @Test
+    public void evictUnvisitedBySieve() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3, EvictionPolicy.SIEVE);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("b");
+        cache.get("c");
+        cache.put("d", 4);
+        validate(cache, "b", "c", "d");
+        // hand unmarks b and c, then discards d
+        cache.put("e", 5);
+        validate(cache, "b", "c", "e");
+        cache.get("b");
+        cache.put("f", 6);
+        validate(cache, "b", "e", "f");
+        cache.put("g", 7);
+        validate(cache, "b", "f", "g");
+    }
+
+    @Test
+    public void evictUnvisitedByClock() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3, EvictionPolicy.CLOCK);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("b");
+        cache.get("c");
+        cache.put("d", 4);
+        validate(cache, "b", "c", "d");
+        // d was placed behind the hand, so b and c are unmarked first
+        cache.put("e", 5);
+        validate(cache, "b", "c", "e");
+        cache.put("f", 6);
+        validate(cache, "c", "e", "f");
+    }
+
+    @Test
+    public void resistScans() {
+        int hitsLru = hits(EvictionPolicy.LRU, false);
+        int hitsSieve = hits(EvictionPolicy.SIEVE, false);
+        int hitsClock = hits(EvictionPolicy.CLOCK, false);
+        assertTrue(hitsSieve > hitsLru);
+        assertTrue(hitsClock > hitsLru);
+    }
+
+    @Test
+    public void admitFrequentOnly() {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(2, EvictionPolicy.LRU, true);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.get("b");
+        cache.put("c", 3);
+        validate(cache, "a", "b");
+        // misses are not counted, since they're followed by a put anyway
+        cache.get("c");
+        cache.put("c", 3);
+        validate(cache, "a", "b");
+        cache.put("c", 3);
+        validate(cache, "b", "c");
+    }
+
+    @Test
+    public void rejectionKeepsEvictionOrder() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3, policy, true);
+            BoundedCache<String, Integer> rejecting = new BoundedCache<String, Integer>(3, policy, true);
+            apply(Arrays.asList(cache, rejecting), "+a", "+b", "+c", "+f", "?a");
+            // a rejected entry must not change which entries are discarded later
+            rejecting.put("x", 0);
+            assertFalse(rejecting.containsKey("x"));
+            for (String op : Arrays.asList("?a", "+e", "+e", "?c", "?f", "+f", "?f", "+f", "+e")) {
+                apply(Arrays.asList(cache, rejecting), op);
+                assertEquals(cache.keySet(), rejecting.keySet());
+            }
+        }
+    }
+
+    private static void apply(List<BoundedCache<String, Integer>> caches, String... ops) {
+        for (String op : ops) {
+            for (BoundedCache<String, Integer> cache : caches) {
+                if (op.charAt(0) == '+') {
+                    cache.put(op.substring(1), 0);
+                } else {
+                    cache.get(op.substring(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void admissionGrowsWithCache() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(Integer.MAX_VALUE, EvictionPolicy.LRU, true);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(1000, cache.size());
+        assertEquals(500, (int)cache.get(500));
+    }
+
+    @Test
+    public void admissionResistsScans() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            assertTrue(hits(policy, true) > hits(policy, false));
+        }
+    }
+
+    private static int hits(EvictionPolicy policy, boolean admission) {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<Integer, Integer>(100, policy, admission);
+        Random random = new Random(17);
+        int hits = 0;
+        int next = 1000;
+        for (int round = 0; round < 200; round++) {
+            // popular keys, then a scan over keys never accessed again
+            for (int i = 0; i < 200; i++) {
+                Integer key = random.nextInt(50);
+                if (cache.get(key) != null) {
+                    hits++;
+                } else {
+                    cache.put(key, key);
+                }
+            }
+            for (int i = 0; i < 100; i++) {
+                cache.put(next, next);
+                next++;
+            }
+        }
+        return hits;
+    }
+
+    @Test
+    public void randomOperations() {
+        for (EvictionPolicy policy : EvictionPolicy.values()) {
+            randomOperations(new BoundedCache<Integer, Integer>(20, policy));
+            randomOperations(new BoundedCache<Integer, Integer>(20, policy, true));
+        }
+    }
+
+    private static void randomOperations(BoundedCache<Integer, Integer> cache) {
+        Map<Integer, Integer> reference = new HashMap<Integer, Integer>();
+        Random random = new Random(19);
+        for (int i = 0; i < 10000; i++) {
+            Integer key = random.nextInt(50);
+            switch (random.nextInt(3)) {
+                case 0:
+                    cache.put(key, i);
+                    reference.put(key, i);
+                    break;
+                case 1:
+                    cache.remove(key);
+                    reference.remove(key);
+                    break;
+                default:
+                    Integer value = cache.get(key);
+                    assertTrue(value == null || value.equals(reference.get(key)));
+            }
+            assertTrue(cache.size() <= 20);
+        }
+        for (Iterator<Map.Entry<Integer, Integer>> it = cache.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Integer> entry = it.next();
+            assertEquals(reference.get(entry.getKey()), entry.getValue());
+            if (entry.getKey() % 2 == 0) {
+                it.remove();
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            cache.put(100 + i, i);
+        }
+        assertEquals(20, cache.size());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serialize() throws Exception {
+        BoundedCache<String, Integer> cache = new BoundedCache<String, Integer>(3, EvictionPolicy.LRU);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache);
+        out.close();
+        BoundedCache<String, Integer> copy = (BoundedCache<String, Integer>)
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(EvictionPolicy.LRU, copy.getPolicy());
+        copy.put("d", 4);
+        validate(copy, "c", "a", "d");
+        assertNull(copy.get("b"));
+    }
+
+    private static void validate(BoundedCache<String, Integer> cache, String... keys) {
+        assertEquals(new HashSet<String>(Arrays.asList(keys)), cache.keySet());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.com.summa.sol.data.HeapTopNTest.Tied;
+
+public class BufferedTopNTest extends AbstractTopNTest {
+
+    @Test
+    public void addAllZero() {
+        BufferedTopN<Integer> topN = new BufferedTopN<Integer>(0);
+        assertFalse(topN.add(1));
+        assertEquals(0, topN.size());
+    }
+
+    @Test
+    public void addAllBeyondBuffer() {
+        BufferedTopN<Integer> topN = new BufferedTopN<Integer>(3, 2);
+        topN.addAll(Arrays.asList(5, 1, 4, 8, 2, 7));
+        assertEquals(3, topN.size());
+        assertFalse(topN.add(3));
+        assertArrayEquals(new Object[] {8, 7, 5}, topN.toArray());
+        topN.addAll(Arrays.asList(6, 9));
+        assertArrayEquals(new Object[] {9, 8, 7}, topN.toArray());
+    }
+
+    @Test
+    public void addAllSameAsListTopN() {
+        Random random = new Random(42);
+        for (int n : new int[] {1, 2, 7, 50}) {
+            ListTopN<Tied> expected = new ListTopN<Tied>(n);
+            BufferedTopN<Tied> result = new BufferedTopN<Tied>(n, 3);
+            for (int i = 0; i < 2000; i++) {
+                Tied elem = new Tied(random.nextInt(100));
+                expected.add(elem);
+                result.add(elem);
+                if (i % 300 == 0) {
+                    assertArrayEquals(expected.toArray(), result.toArray());
+                }
+            }
+            assertArrayEquals(expected.toArray(), result.toArray());
+        }
+    }
+}
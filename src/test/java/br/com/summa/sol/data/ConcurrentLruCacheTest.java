@@ -0,0 +1,307 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void evictLeastRecentlyAccessed() {
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        cache.put("d", 4);
+        assertEquals(new HashSet<String>(Arrays.asList("a", "c", "d")), cache.keySet());
+        cache.put("c", 5);
+        cache.put("e", 6);
+        assertEquals(new HashSet<String>(Arrays.asList("c", "d", "e")), cache.keySet());
+        assertEquals(Integer.valueOf(5), cache.get("c"));
+    }
+
+    @Test
+    public void manyReads() {
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(10);
+        for (int i = 0; i < 10; i++) {
+            cache.put(i, i);
+        }
+        // keep reading the first half, far beyond the capacity of read buffers
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertEquals(Integer.valueOf(i), cache.get(i));
+            }
+        }
+        for (int i = 10; i < 15; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 0; i < 15; i++) {
+            assertEquals(i < 5 || i >= 10, cache.containsKey(i));
+        }
+    }
+
+    @Test
+    public void conditionalOperations() {
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(2);
+        assertNull(cache.putIfAbsent("a", 1));
+        assertEquals(Integer.valueOf(1), cache.putIfAbsent("a", 2));
+        assertFalse(cache.replace("a", 2, 3));
+        assertTrue(cache.replace("a", 1, 3));
+        assertEquals(Integer.valueOf(3), cache.replace("a", 4));
+        assertNull(cache.replace("b", 5));
+        assertFalse(cache.remove("a", 3));
+        assertTrue(cache.remove("a", 4));
+        assertTrue(cache.isEmpty());
+        cache.put("b", 6);
+        cache.put("c", 7);
+        Iterator<Map.Entry<String, Integer>> it = cache.entrySet().iterator();
+        it.next();
+        it.remove();
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.put("d", 8);
+        cache.put("e", 9);
+        cache.put("f", 10);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void expireAfterWrite() {
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock();
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(10, 100, 0, TimeUnit.MILLISECONDS, clock);
+        cache.put("a", 1);
+        clock.advance(50);
+        cache.put("b", 2);
+        cache.put("c", 3, 1, TimeUnit.SECONDS);
+        assertEquals(Integer.valueOf(1), cache.get("a"));
+        clock.advance(50);
+        assertNull(cache.get("a"));
+        assertFalse(cache.containsKey("a"));
+        assertEquals(Integer.valueOf(2), cache.get("b"));
+        assertEquals(Integer.valueOf(2), cache.putIfAbsent("b", 4));
+        clock.advance(100);
+        assertNull(cache.get("b"));
+        assertEquals(Integer.valueOf(3), cache.get("c"));
+        assertEquals(new HashSet<String>(Arrays.asList("c")), cache.keySet());
+        clock.advance(900);
+        assertNull(cache.replace("c", 5));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void expireAfterAccess() {
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock();
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(10, 0, 100, TimeUnit.MILLISECONDS, clock);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        for (int i = 0; i < 10; i++) {
+            clock.advance(60);
+            assertEquals(Integer.valueOf(1), cache.get("a"));
+        }
+        assertNull(cache.get("b"));
+        clock.advance(100);
+        assertNull(cache.get("a"));
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void expireOnRead() {
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock();
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(2, 0, 0, TimeUnit.MILLISECONDS, clock);
+        cache.put("a", 1, 1, TimeUnit.SECONDS);
+        cache.put("b", 2);
+        clock.advance(2000);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+        cache.put("c", 3);
+        assertEquals(new HashSet<String>(Arrays.asList("b", "c")), cache.keySet());
+        cache.put("d", 4);
+        assertEquals(new HashSet<String>(Arrays.asList("c", "d")), cache.keySet());
+    }
+
+    @Test
+    public void expireOnReadNotRecorded() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Thread> blocking = new AtomicReference<Thread>();
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock() {
+            @Override
+            public long millis() {
+                if (blocking.compareAndSet(Thread.currentThread(), null)) {
+                    locked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+                return super.millis();
+            }
+        };
+        final ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(3, 0, 0, TimeUnit.MILLISECONDS, clock);
+        cache.put("x", 1);
+        cache.put("a", 2, 10, TimeUnit.MILLISECONDS);
+        cache.put("y", 3);
+        clock.advance(20);
+        // a write holding the lock while reads fill the buffer, so the expiring read is dropped
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                cache.put("y", 4);
+            }
+        };
+        blocking.set(writer);
+        writer.start();
+        locked.await();
+        for (int i = 0; i < 16; i++) {
+            assertEquals(Integer.valueOf(4), cache.get("y"));
+        }
+        assertNull(cache.get("a"));
+        release.countDown();
+        writer.join();
+        cache.put("d", 5);
+        assertEquals(new HashSet<String>(Arrays.asList("x", "y", "d")), cache.keySet());
+    }
+
+    @Test
+    public void discardExpired() {
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock();
+        ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(100000, 0, 0, TimeUnit.MILLISECONDS, clock);
+        Random random = new Random(13);
+        long[] deadlines = new long[10000];
+        for (int i = 0; i < deadlines.length; i++) {
+            long duration = 1 + random.nextInt(random.nextBoolean() ? 1000 : 100000000);
+            deadlines[i] = clock.millis() + duration;
+            cache.put(i, i, duration, TimeUnit.MILLISECONDS);
+        }
+        while (!cache.isEmpty()) {
+            clock.advance(1 + random.nextInt(random.nextBoolean() ? 100 : 1000000));
+            cache.cleanUp();
+            int pending = 0;
+            for (int i = 0; i < deadlines.length; i++) {
+                assertEquals(deadlines[i] > clock.millis(), cache.containsKey(i));
+                // expired entries are discarded once the finest tick (64 ms) elapses
+                if (deadlines[i] >>> 6 >= clock.millis() >>> 6) {
+                    pending++;
+                }
+            }
+            assertEquals(pending, cache.size());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serialize() throws Exception {
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        cache.get("a");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache);
+        out.close();
+        ConcurrentLruCache<String, Integer> copy = (ConcurrentLruCache<String, Integer>)
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(cache.entrySet(), copy.entrySet());
+        copy.put("d", 4);
+        assertFalse(copy.containsKey("b"));
+        assertTrue(copy.containsKey("a"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializeWithClock() throws Exception {
+        WindowedTopNTest.ManualClock clock = new WindowedTopNTest.ManualClock();
+        ConcurrentLruCache<String, Integer> cache = new ConcurrentLruCache<String, Integer>(3, 0, 0, TimeUnit.MILLISECONDS, clock);
+        cache.put("a", 1);
+        cache.put("b", 2, 1, TimeUnit.DAYS);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(cache);
+        out.close();
+        ConcurrentLruCache<String, Integer> copy = (ConcurrentLruCache<String, Integer>)
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        // the manual clock isn't serializable, so the copy uses the system clock
+        assertEquals(Integer.valueOf(1), copy.get("a"));
+        assertNull(copy.get("b"));
+    }
+
+    @Test
+    public void concurrentAccess() throws Exception {
+        final int max = 100;
+        final ConcurrentLruCache<Integer, Integer> cache = new ConcurrentLruCache<Integer, Integer>(max);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 50000; i++) {
+                            Integer key = random.nextInt(300);
+                            if (random.nextInt(4) == 0) {
+                                cache.put(key, -key);
+                            } else {
+                                Integer value = cache.get(key);
+                                if (value != null && value.intValue() != -key.intValue()) {
+                                    throw new AssertionError("Wrong value for " + key);
+                                }
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(max, cache.size());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ConcurrentTopNTest extends AbstractTopNTest {
+
+    @Test
+    public void addAllSingleThread() {
+        validate(new ConcurrentTopN<Integer>(3, 4), Arrays.asList(4, 1, 4, 1, 2, 3, 2, 3), Arrays.asList(4, 4, 3));
+    }
+
+    @Test
+    public void addAllManyThreads() throws InterruptedException {
+        final int threads = 8;
+        final int perThread = 20000;
+        final List<Integer> input = new ArrayList<Integer>();
+        for (int i = 0; i < threads*perThread; i++) {
+            input.add(i);
+        }
+        Collections.shuffle(input);
+
+        final ConcurrentTopN<Integer> topN = new ConcurrentTopN<Integer>(10, threads);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final List<Integer> part = input.subList(t*perThread, (t+1)*perThread);
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    topN.addAll(part);
+                }
+            };
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Object[] expected = new Object[10];
+        for (int i = 0; i < 10; i++) {
+            expected[i] = threads*perThread-1-i;
+        }
+        assertEquals(10, topN.size());
+        assertArrayEquals(expected, topN.toArray());
+        assertTrue(topN.contains(threads*perThread-1));
+    }
+
+    @Test
+    public void clearWhileAdding() throws InterruptedException {
+        final ConcurrentTopN<Integer> topN = new ConcurrentTopN<Integer>(2, 4);
+        Thread[] workers = new Thread[4];
+        for (int t = 0; t < workers.length; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 100000; i++) {
+                        topN.add(1000 + i % 100);
+                    }
+                }
+            };
+            workers[t].start();
+        }
+        for (int i = 0; i < 1000; i++) {
+            topN.clear();
+            // a threshold is only published while its shard is full
+            Integer threshold = topN.threshold();
+            assertTrue(threshold == null || topN.size() == 2);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        topN.clear();
+        assertTrue(topN.add(1));
+    }
+
+    @Test
+    public void equalsSnapshot() {
+        ConcurrentTopN<Integer> topN1 = new ConcurrentTopN<Integer>(3, 4);
+        ConcurrentTopN<Integer> topN2 = new ConcurrentTopN<Integer>(3, 1);
+        topN1.addAll(Arrays.asList(1, 5, 2, 4));
+        topN2.addAll(Arrays.asList(4, 2, 5, 3));
+        assertFalse(topN1.equals(topN2));
+        topN2.add(1);
+        topN2.clear();
+        topN2.addAll(Arrays.asList(5, 4, 2));
+        assertEquals(topN1, topN2);
+        assertEquals(topN1.hashCode(), topN2.hashCode());
+    }
+}
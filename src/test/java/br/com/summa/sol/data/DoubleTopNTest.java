@@ -0,0 +1,80 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DoubleTopNTest {
+
+    @Test
+    public void addWithRepetition() {
+        DoubleTopN topN = new DoubleTopN(3);
+        assertTrue(topN.add(2.0, 1));
+        assertTrue(topN.add(3.0, 2));
+        assertTrue(topN.add(2.0, 3));
+        assertTrue(topN.add(3.0, 4));
+        assertFalse(topN.wouldAccept(2.0));
+        assertEquals(2.0, topN.threshold(), 0.0);
+        assertFalse(topN.add(2.0, 5));
+        assertFalse(topN.add(1.0, 6));
+
+        double[] scores = new double[3];
+        long[] ids = new long[3];
+        assertEquals(3, topN.toArrays(scores, ids));
+        assertArrayEquals(new double[] {3.0, 3.0, 2.0}, scores, 0.0);
+        assertArrayEquals(new long[] {2, 4, 1}, ids);
+    }
+
+    @Test
+    public void addBulkSameAsSingle() {
+        Random random = new Random(7);
+        double[] scores = new double[5000];
+        long[] ids = new long[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = random.nextInt(1000) / 10.0;
+            ids[i] = i;
+        }
+        DoubleTopN single = new DoubleTopN(100);
+        int added = 0;
+        for (int i = 100; i < 4100; i++) {
+            if (single.add(scores[i], ids[i])) {
+                added++;
+            }
+        }
+        DoubleTopN bulk = new DoubleTopN(100);
+        assertEquals(added, bulk.add(scores, ids, 100, 4000));
+
+        double[] singleScores = new double[100];
+        long[] singleIds = new long[100];
+        double[] bulkScores = new double[100];
+        long[] bulkIds = new long[100];
+        single.toArrays(singleScores, singleIds);
+        bulk.toArrays(bulkScores, bulkIds);
+        assertArrayEquals(singleScores, bulkScores, 0.0);
+        assertArrayEquals(singleIds, bulkIds);
+        for (int i = 1; i < 100; i++) {
+            assertTrue(bulkScores[i-1] >= bulkScores[i]);
+        }
+    }
+}
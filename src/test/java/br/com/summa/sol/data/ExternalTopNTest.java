@@ -0,0 +1,153 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalTopNTest {
+
+    private static final ElementCodec<Integer> CODEC = new ElementCodec<Integer>() {
+        @Override
+        public void write(Integer elem, DataOutput out) throws IOException {
+            out.writeInt(elem);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void addAllRandom() throws IOException {
+        Random random = new Random(42);
+        HeapTopN<Integer> expected = new HeapTopN<Integer>(1000);
+        ExternalTopN<Integer> topN = new ExternalTopN<Integer>(1000, 100, CODEC, folder.getRoot());
+        for (int i = 0; i < 100000; i++) {
+            int elem = random.nextInt(50000);
+            expected.add(elem);
+            topN.add(elem);
+        }
+        assertEquals(expected.size(), topN.size());
+        assertArrayEquals(expected.toArray(), topN.toArray());
+        assertArrayEquals(expected.toArray(), topN.toArray());
+        assertTrue(folder.getRoot().list().length > 0);
+        topN.close();
+        assertTrue(topN.isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void pruneWithThreshold() throws IOException {
+        try (ExternalTopN<Integer> topN = new ExternalTopN<Integer>(3, 4, CODEC, folder.getRoot())) {
+            topN.addAll(Arrays.asList(5, 1, 7, 3));
+            assertNull(topN.threshold());
+            assertEquals(3, topN.size());
+            assertEquals(3, topN.threshold().intValue());
+            assertFalse(topN.wouldAccept(3));
+            assertFalse(topN.add(2));
+            assertTrue(topN.add(4));
+            assertTrue(topN.add(6));
+            assertEquals(4, topN.threshold().intValue());
+            assertFalse(topN.add(4));
+            assertArrayEquals(new Object[] {7, 6, 5}, topN.toArray());
+            assertTrue(topN.contains(5));
+            assertFalse(topN.contains(4));
+        }
+    }
+
+    @Test
+    public void oldestTiesFirst() throws IOException {
+        final Integer[] elems = new Integer[8];
+        for (int i = 0; i < elems.length; i++) {
+            elems[i] = new Integer(1000);
+        }
+        ElementCodec<Integer> codec = new ElementCodec<Integer>() {
+            @Override
+            public void write(Integer elem, DataOutput out) throws IOException {
+                for (int i = 0; i < elems.length; i++) {
+                    if (elems[i] == elem) {
+                        out.writeInt(i);
+                    }
+                }
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return elems[in.readInt()];
+            }
+        };
+        try (ExternalTopN<Integer> topN = new ExternalTopN<Integer>(5, 2, codec, folder.getRoot())) {
+            topN.addAll(Arrays.asList(elems));
+            Object[] result = topN.toArray();
+            assertEquals(5, result.length);
+            for (int i = 0; i < result.length; i++) {
+                assertSame(elems[i], result[i]);
+            }
+        }
+    }
+
+    @Test
+    public void releaseFiles() throws IOException {
+        File descriptors = new File("/proc/self/fd");
+        Assume.assumeTrue(descriptors.isDirectory());
+        ExternalTopN<Integer> topN = new ExternalTopN<Integer>(10, 10, CODEC, folder.getRoot());
+        for (int i = 0; i < 100; i++) {
+            topN.add(i);
+        }
+        int open = descriptors.list().length;
+        assertArrayEquals(new Object[] {99, 98, 97, 96, 95, 94, 93, 92, 91, 90}, topN.toArray());
+        assertEquals(open, descriptors.list().length);
+        assertTrue(topN.contains(95));
+        assertEquals(open, descriptors.list().length);
+
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        assertTrue(descriptors.list().length > open);
+        ((Closeable)it).close();
+        assertEquals(open, descriptors.list().length);
+
+        topN.iterator().next();
+        topN.clear();
+        assertTrue(folder.getRoot().list().length > 0);
+        topN.close();
+        assertEquals(open, descriptors.list().length);
+        assertEquals(0, folder.getRoot().list().length);
+    }
+}
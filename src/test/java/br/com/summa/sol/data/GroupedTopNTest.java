@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.com.summa.sol.data.HeapTopNTest.Tied;
+
+public class GroupedTopNTest {
+
+    @Test
+    public void addToGroups() {
+        GroupedTopN<String, Integer> grouped = new GroupedTopN<String, Integer>(3);
+        for (int i : new int[] {5, 1, 7, 3, 9}) {
+            grouped.add("odd", i);
+        }
+        grouped.add("even", 4);
+        assertFalse(grouped.add("odd", 2));
+        assertEquals(Arrays.asList(9, 7, 5), grouped.get("odd"));
+        assertEquals(Arrays.asList(4), grouped.get("even"));
+        assertTrue(grouped.get("none").isEmpty());
+        assertEquals(2, grouped.groups());
+        assertTrue(grouped.remove("odd"));
+        grouped.add("other", 6);
+        assertEquals(Arrays.asList(6), grouped.get("other"));
+        assertEquals(0, grouped.size("odd"));
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        GroupedTopN<String, Integer> grouped = new GroupedTopN<String, Integer>(2, 2);
+        grouped.add("a", 1);
+        grouped.add("b", 2);
+        grouped.add("a", 3);
+        grouped.add("c", 4);
+        assertFalse(grouped.containsKey("b"));
+        assertEquals(Arrays.asList(3, 1), grouped.get("a"));
+        assertEquals(Arrays.asList(4), grouped.get("c"));
+        grouped.add("d", 5);
+        assertFalse(grouped.containsKey("a"));
+        assertArrayEquals(new Object[] {"c", "d"}, grouped.keySet().toArray());
+    }
+
+    @Test
+    public void addSameAsListTopN() {
+        Random random = new Random(42);
+        Map<Integer, ListTopN<Tied>> expected = new HashMap<Integer, ListTopN<Tied>>();
+        GroupedTopN<Integer, Tied> grouped = new GroupedTopN<Integer, Tied>(5);
+        for (int i = 0; i < 20000; i++) {
+            int key = random.nextInt(100);
+            Tied elem = new Tied(random.nextInt(50));
+            ListTopN<Tied> topN = expected.get(key);
+            if (topN == null) {
+                topN = new ListTopN<Tied>(5);
+                expected.put(key, topN);
+            }
+            assertEquals(topN.add(elem), grouped.add(key, elem));
+        }
+        for (Map.Entry<Integer, ListTopN<Tied>> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue().toArray(), grouped.get(entry.getKey()).toArray());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void groupSizeTooLarge() {
+        new GroupedTopN<String, Integer>(Integer.MAX_VALUE);
+    }
+}
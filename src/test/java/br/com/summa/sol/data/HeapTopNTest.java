@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeapTopNTest extends AbstractTopNTest {
+
+    @Test
+    public void addAllZero() {
+        HeapTopN<Integer> topN = new HeapTopN<Integer>(0);
+        assertFalse(topN.add(1));
+        assertEquals(0, topN.size());
+    }
+
+    @Test
+    public void addAllInterleavedWithReads() {
+        HeapTopN<Integer> topN = new HeapTopN<Integer>(3);
+        topN.addAll(Arrays.asList(5, 1, 4));
+        assertArrayEquals(new Object[] {5, 4, 1}, topN.toArray());
+        topN.addAll(Arrays.asList(2, 6, 3));
+        assertArrayEquals(new Object[] {6, 5, 4}, topN.toArray());
+    }
+
+    @Test
+    public void addAllSameAsListTopN() {
+        Random random = new Random(42);
+        for (int n : new int[] {1, 2, 7, 50}) {
+            ListTopN<Tied> expected = new ListTopN<Tied>(n);
+            HeapTopN<Tied> result = new HeapTopN<Tied>(n);
+            for (int i = 0; i < 2000; i++) {
+                Tied elem = new Tied(random.nextInt(100));
+                assertEquals(expected.add(elem), result.add(elem));
+            }
+            assertArrayEquals(expected.toArray(), result.toArray());
+        }
+    }
+
+    /**
+     * Element with frequent ties, compared by value and by identity otherwise.
+     */
+    static class Tied implements Comparable<Tied> {
+        private final int value;
+
+        Tied(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int compareTo(Tied other) {
+            return value < other.value ? -1 : value > other.value ? 1 : 0;
+        }
+    }
+}
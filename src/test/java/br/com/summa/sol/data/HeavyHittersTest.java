@@ -0,0 +1,95 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void exactWithinCapacity() {
+        HeavyHitters<String> hitters = new HeavyHitters<String>(3);
+        for (String key : new String[] {"a", "b", "a", "c", "a", "b"}) {
+            hitters.add(key);
+        }
+        Iterator<HeavyHitters.Counter<String>> it = hitters.iterator();
+        validate(it.next(), "a", 3, 0);
+        validate(it.next(), "b", 2, 0);
+        validate(it.next(), "c", 1, 0);
+        assertEquals(6, hitters.total());
+        assertEquals(1, hitters.estimate("d"));
+    }
+
+    @Test
+    public void replaceLowestCount() {
+        HeavyHitters<String> hitters = new HeavyHitters<String>(2);
+        hitters.add("a", 5);
+        hitters.add("b", 2);
+        hitters.add("c");
+        Iterator<HeavyHitters.Counter<String>> it = hitters.iterator();
+        validate(it.next(), "a", 5, 0);
+        validate(it.next(), "c", 3, 2);
+        assertEquals(3, hitters.estimate("b"));
+    }
+
+    @Test
+    public void boundedErrors() {
+        Map<Integer, Long> exact = new HashMap<Integer, Long>();
+        HeavyHitters<Integer> hitters = new HeavyHitters<Integer>(50);
+        HeavyHitters<Integer> left = new HeavyHitters<Integer>(50);
+        HeavyHitters<Integer> right = new HeavyHitters<Integer>(50);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            // skewed distribution over 10000 keys
+            int key = (int)Math.floor(Math.pow(10000, random.nextDouble()));
+            Long count = exact.get(key);
+            exact.put(key, count == null ? 1 : count+1);
+            hitters.add(key);
+            (i % 2 == 0 ? left : right).add(key);
+        }
+        left.merge(right);
+        for (HeavyHitters<Integer> summary : Arrays.asList(hitters, left)) {
+            assertEquals(50, summary.size());
+            assertEquals(100000, summary.total());
+            for (HeavyHitters.Counter<Integer> counter : summary) {
+                long count = exact.get(counter.getKey());
+                assertTrue(counter.getCount() >= count);
+                assertTrue(counter.getCount() - counter.getError() <= count);
+            }
+            for (Map.Entry<Integer, Long> entry : exact.entrySet()) {
+                assertTrue(summary.estimate(entry.getKey()) >= entry.getValue());
+            }
+            // most frequent key is guaranteed to be found
+            assertEquals(1, (int)summary.iterator().next().getKey());
+        }
+    }
+
+    private static <K> void validate(HeavyHitters.Counter<K> counter, K key, long count, long error) {
+        assertEquals(key, counter.getKey());
+        assertEquals(count, counter.getCount());
+        assertEquals(error, counter.getError());
+    }
+}
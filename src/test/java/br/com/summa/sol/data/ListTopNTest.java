@@ -16,12 +16,83 @@
 
 package br.com.summa.sol.data;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.ListIterator;
+import java.util.Random;
 
 import org.junit.Test;
 
 public class ListTopNTest extends AbstractTopNTest {
     private static final UniqueLastDigitStrategy strategy = new UniqueLastDigitStrategy();
+    private static final UniqueLastDigitKeyStrategy keyStrategy = new UniqueLastDigitKeyStrategy();
+    private static final UniqueLastDigitLshStrategy lshStrategy = new UniqueLastDigitLshStrategy();
+
+    @Test
+    public void getByPosition() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(4);
+        topN.addAll(Arrays.asList(5, 9, 1, 7, 3, 8));
+        assertEquals(9, (int)topN.get(0));
+        assertEquals(8, (int)topN.get(1));
+        assertEquals(5, (int)topN.get(3));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfRange() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(4);
+        topN.addAll(Arrays.asList(5, 9));
+        topN.get(2);
+    }
+
+    @Test
+    public void listIterator() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(4);
+        topN.addAll(Arrays.asList(5, 9, 1, 7));
+        ListIterator<Integer> it = topN.iterator();
+        assertFalse(it.hasPrevious());
+        assertEquals(9, (int)it.next());
+        assertEquals(7, (int)it.next());
+        assertEquals(1, it.previousIndex());
+        assertEquals(7, (int)it.previous());
+        assertEquals(1, it.nextIndex());
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailFast() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        topN.add(4);
+        it.next();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailFastAfterMerge() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        ListTopN<Integer> other = new ListTopN<Integer>(3);
+        other.add(4);
+        topN.merge(other);
+        it.next();
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void iteratorReadOnly() {
+        ListTopN<Integer> topN = new ListTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        it.remove();
+    }
 
     @Test
     public void addAllSingle() {
@@ -43,10 +114,108 @@ public class ListTopNTest extends AbstractTopNTest {
         validate(new ListTopN<Integer>(3, strategy), Arrays.asList(1, 2, 3, 4, 12, 14, 22), Arrays.asList(22, 14, 3));
     }
 
+    @Test
+    public void addAllExclusiveByKey() {
+        validate(new ListTopN<Integer>(3, keyStrategy), Arrays.asList(1, 11), Arrays.asList(11));
+    }
+
+    @Test
+    public void addAllManyByKey() {
+        validate(new ListTopN<Integer>(3, keyStrategy), Arrays.asList(1, 2, 3, 4, 12, 14, 22), Arrays.asList(22, 14, 3));
+    }
+
+    @Test
+    public void addAllRandomByKey() {
+        validateRandomByKey(new ListTopN<Integer>(20, strategy), new ListTopN<Integer>(20, keyStrategy));
+        validateRandomByKey(new TreeTopN<Integer>(20, strategy), new TreeTopN<Integer>(20, keyStrategy));
+        validateRandomByKey(new ListTopN<Integer>(20, strategy), new TreeTopN<Integer>(20, keyStrategy));
+        validateRandomByKey(new TreeTopN<Integer>(5, 8, strategy), new TreeTopN<Integer>(5, 8, keyStrategy));
+    }
+
+    @Test
+    public void addAllRandomByBucket() {
+        validateRandomByKey(new ListTopN<Integer>(20, strategy), new ListTopN<Integer>(20, lshStrategy));
+        validateRandomByKey(new TreeTopN<Integer>(20, strategy), new TreeTopN<Integer>(20, lshStrategy));
+        validateRandomByKey(new TreeTopN<Integer>(5, 8, strategy), new TreeTopN<Integer>(5, 8, lshStrategy));
+    }
+
+    @Test
+    public void addAllNearDuplicates() {
+        // signatures differing in less than 4 bits are near-duplicates
+        TopN<Integer> topN = new ListTopN<Integer>(3, new LshExclusionStrategy<Integer>() {
+            @Override
+            public long[] bucketKeys(Integer elem) {
+                return simHashBands(elem, 4);
+            }
+
+            @Override
+            public boolean mutuallyExclusive(Integer elem1, Integer elem2) {
+                return Integer.bitCount(elem1 ^ elem2) < 4;
+            }
+        });
+        validate(topN, Arrays.asList(0x100, 0x107, 0x1000, 0x10F, 0x1003, 0x1FF), Arrays.asList(0x1003, 0x1FF, 0x10F));
+    }
+
+    @Test
+    public void bucketKeys() {
+        Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            long simHash = random.nextLong();
+            long similar = simHash ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            assertTrue(shareKey(LshExclusionStrategy.simHashBands(simHash, 3), LshExclusionStrategy.simHashBands(similar, 3)));
+        }
+        long[] minHashes = {1, 2, 3, 4, 5, 6};
+        long[] similar = {1, 2, 9, 4, 9, 9};
+        assertTrue(shareKey(LshExclusionStrategy.minHashBands(minHashes, 3), LshExclusionStrategy.minHashBands(similar, 3)));
+        assertFalse(shareKey(LshExclusionStrategy.minHashBands(minHashes, 2), LshExclusionStrategy.minHashBands(similar, 2)));
+        // equal bands in different positions don't collide
+        assertFalse(shareKey(LshExclusionStrategy.minHashBands(new long[] {1, 2}, 2), LshExclusionStrategy.minHashBands(new long[] {2, 1}, 2)));
+    }
+
+    private static boolean shareKey(long[] keys1, long[] keys2) {
+        for (long key1 : keys1) {
+            for (long key2 : keys2) {
+                if (key1 == key2) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void validateRandomByKey(TopN<Integer> expected, TopN<Integer> result) {
+        Random random = new Random(11);
+        for (int i = 0; i < 5000; i++) {
+            Integer elem = random.nextInt(1000);
+            expected.add(elem);
+            result.add(elem);
+        }
+        assertArrayEquals(expected.toArray(), result.toArray());
+    }
+
     public static class UniqueLastDigitStrategy implements ExclusionStrategy<Integer> {
         @Override
         public boolean mutuallyExclusive(Integer elem1, Integer elem2) {
             return elem1.intValue() % 10 == elem2.intValue() % 10;
         }
     }
+
+    public static class UniqueLastDigitKeyStrategy extends KeyExclusionStrategy<Integer, Integer> {
+        @Override
+        public Integer exclusionKey(Integer elem) {
+            return elem.intValue() % 10;
+        }
+    }
+
+    public static class UniqueLastDigitLshStrategy extends LshExclusionStrategy<Integer> {
+        @Override
+        public long[] bucketKeys(Integer elem) {
+            return new long[] {elem.intValue() % 10, elem.intValue() % 5 + 100};
+        }
+
+        @Override
+        public boolean mutuallyExclusive(Integer elem1, Integer elem2) {
+            return elem1.intValue() % 10 == elem2.intValue() % 10;
+        }
+    }
 }
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LongTopNTest {
+
+    @Test
+    public void addAfterRead() {
+        LongTopN topN = new LongTopN(2);
+        topN.add(5, 1);
+        topN.add(7, 2);
+        long[] scores = new long[2];
+        long[] ids = new long[2];
+        topN.toArrays(scores, ids);
+        assertArrayEquals(new long[] {7, 5}, scores);
+        topN.add(6, 3);
+        topN.toArrays(scores, ids);
+        assertArrayEquals(new long[] {7, 6}, scores);
+        assertArrayEquals(new long[] {2, 3}, ids);
+    }
+
+    @Test
+    public void thresholdOfMinValue() {
+        LongTopN topN = new LongTopN(2);
+        topN.add(Long.MIN_VALUE, 1);
+        assertFalse(topN.isFull());
+        assertEquals(Long.MIN_VALUE, topN.threshold());
+        assertTrue(topN.wouldAccept(Long.MIN_VALUE));
+        topN.add(Long.MIN_VALUE, 2);
+        assertTrue(topN.isFull());
+        assertEquals(Long.MIN_VALUE, topN.threshold());
+        assertFalse(topN.wouldAccept(Long.MIN_VALUE));
+        topN.clear();
+        assertFalse(topN.isFull());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class LruCacheTest {
+    private static final Weigher<String, String> LENGTH = (key, value) -> value.length();
+    private static final Weigher<String, StringBuilder> BUILDER_LENGTH = (key, value) -> value.length();
+
+    @Test
+    public void evictLeastRecentlyAccessed() {
+        LruCache<String, String> cache = new LruCache<String, String>(2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+        assertEquals(Arrays.asList("a", "c"), new ArrayList<String>(cache.keySet()));
+        assertEquals(2, cache.totalWeight());
+    }
+
+    @Test
+    public void evictByWeight() {
+        LruCache<String, String> cache = new LruCache<String, String>(10, LENGTH);
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        cache.get("a");
+        cache.put("c", "12");
+        assertEquals(10, cache.totalWeight());
+        cache.put("d", "1");
+        assertEquals(Arrays.asList("a", "c", "d"), new ArrayList<String>(cache.keySet()));
+        assertEquals(7, cache.totalWeight());
+        cache.put("a", "123456789");
+        assertEquals(Arrays.asList("d", "a"), new ArrayList<String>(cache.keySet()));
+        assertEquals(10, cache.totalWeight());
+        cache.put("e", "12345678901");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.totalWeight());
+    }
+
+    @Test
+    public void evictByCountAndWeight() {
+        LruCache<String, String> cache = new LruCache<String, String>(2, 100, LENGTH);
+        cache.put("a", "1");
+        cache.put("b", "12");
+        cache.put("c", "123");
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<String>(cache.keySet()));
+        assertEquals(5, cache.totalWeight());
+    }
+
+    @Test
+    public void updateWeight() {
+        LruCache<String, String> cache = new LruCache<String, String>(100, LENGTH);
+        cache.put("a", "1");
+        cache.put("b", "12");
+        cache.put("c", "123");
+        cache.put("d", "1234");
+        assertEquals("12", cache.remove("b"));
+        assertNull(cache.remove("x"));
+        assertEquals(8, cache.totalWeight());
+        cache.merge("a", "22", (v1, v2) -> v1 + v2);
+        cache.computeIfPresent("c", (k, v) -> null);
+        cache.computeIfAbsent("e", k -> "55555");
+        cache.putIfAbsent("e", "0");
+        cache.replace("d", "1234", "44");
+        assertEquals(3 + 2 + 5, cache.totalWeight());
+        Iterator<Map.Entry<String, String>> it = cache.entrySet().iterator();
+        it.next().setValue("");
+        it.next();
+        it.remove();
+        assertEquals(2, cache.totalWeight());
+        cache.keySet().remove("d");
+        assertEquals(0, cache.totalWeight());
+        cache.put("f", "666666");
+        cache.values().clear();
+        assertEquals(0, cache.totalWeight());
+    }
+
+    @Test
+    public void recordedWeight() {
+        LruCache<String, StringBuilder> cache = new LruCache<String, StringBuilder>(10, BUILDER_LENGTH);
+        StringBuilder value = new StringBuilder("123");
+        cache.put("a", value);
+        cache.put("b", new StringBuilder("1"));
+        value.append("45");
+        assertEquals(4, cache.totalWeight());
+        cache.remove("a");
+        assertEquals(1, cache.totalWeight());
+        @SuppressWarnings("unchecked")
+        LruCache<String, StringBuilder> copy = (LruCache<String, StringBuilder>)cache.clone();
+        copy.clear();
+        assertEquals(1, cache.totalWeight());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializeWeighted() throws Exception {
+        LruCache<String, String> cache = new LruCache<String, String>(10, LENGTH);
+        cache.put("a", "1234");
+        cache.put("b", "123");
+        LruCache<String, String> copy = (LruCache<String, String>)WindowedTopNTest.copy(cache);
+        assertEquals(cache, copy);
+        assertEquals(7, copy.totalWeight());
+        copy.put("c", "1234");
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<String>(copy.keySet()));
+        assertEquals(7, copy.totalWeight());
+    }
+}
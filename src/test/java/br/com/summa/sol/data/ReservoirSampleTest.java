@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.Test;
+
+public class ReservoirSampleTest {
+
+    private static final int TRIALS = 20000;
+
+    private static void assertFrequency(double expected, int actual) {
+        assertEquals(expected, actual, expected * 0.1);
+    }
+
+    @Test
+    public void uniformFrequencies() {
+        Random random = new Random(42);
+        int[] frequencies = new int[100];
+        for (int t = 0; t < TRIALS; t++) {
+            ReservoirSample<Integer> sample = new ReservoirSample<Integer>(10, random);
+            for (int i = 0; i < frequencies.length; i++) {
+                sample.add(i);
+            }
+            assertEquals(10, sample.size());
+            assertEquals(10, new HashSet<Integer>(sample).size());
+            for (Integer elem : sample) {
+                frequencies[elem]++;
+            }
+        }
+        for (int frequency : frequencies) {
+            assertFrequency(TRIALS * 10.0 / 100, frequency);
+        }
+    }
+
+    @Test
+    public void uniformSkip() {
+        Random random = new Random(42);
+        int[] frequencies = new int[100];
+        for (int t = 0; t < TRIALS; t++) {
+            ReservoirSample<Integer> sample = new ReservoirSample<Integer>(10, random);
+            for (int i = 0; i < frequencies.length; i++) {
+                long skip = Math.min(sample.skipCount(), frequencies.length - i);
+                if (skip > 0) {
+                    sample.skip(skip);
+                    i += skip-1;
+                } else {
+                    sample.add(i);
+                }
+            }
+            assertEquals(100, sample.count());
+            for (Integer elem : sample) {
+                frequencies[elem]++;
+            }
+        }
+        for (int frequency : frequencies) {
+            assertFrequency(TRIALS * 10.0 / 100, frequency);
+        }
+    }
+
+    @Test
+    public void uniformMerge() {
+        Random random = new Random(42);
+        int[] frequencies = new int[150];
+        for (int t = 0; t < TRIALS; t++) {
+            ReservoirSample<Integer> first = new ReservoirSample<Integer>(10, random);
+            ReservoirSample<Integer> second = new ReservoirSample<Integer>(10, random);
+            for (int i = 0; i < frequencies.length; i++) {
+                (i < 50 ? first : second).add(i);
+            }
+            first.merge(second);
+            assertEquals(10, first.size());
+            assertEquals(150, first.count());
+            for (Integer elem : first) {
+                frequencies[elem]++;
+            }
+        }
+        for (int frequency : frequencies) {
+            assertFrequency(TRIALS * 10.0 / 150, frequency);
+        }
+    }
+
+    @Test
+    public void smallStream() {
+        ReservoirSample<Integer> sample = new ReservoirSample<Integer>(5);
+        assertTrue(sample.addAll(Arrays.asList(3, 1, 2)));
+        assertEquals(3, sample.size());
+        assertTrue(sample.containsAll(Arrays.asList(1, 2, 3)));
+        ReservoirSample<Integer> other = new ReservoirSample<Integer>(5);
+        other.add(4);
+        sample.merge(other);
+        assertEquals(4, sample.size());
+        assertTrue(sample.contains(4));
+        sample.clear();
+        assertTrue(sample.isEmpty());
+        assertEquals(0, sample.count());
+    }
+
+    @Test
+    public void weightedFrequencies() {
+        Random random = new Random(42);
+        int[] frequencies = new int[5];
+        for (int t = 0; t < TRIALS * 2; t++) {
+            WeightedReservoirSample<Integer> sample = new WeightedReservoirSample<Integer>(1, Integer::doubleValue, random);
+            sample.addAll(Arrays.asList(0, 1, 2, 3, 4));
+            for (Integer elem : sample) {
+                frequencies[elem]++;
+            }
+        }
+        assertEquals(0, frequencies[0]);
+        for (int i = 1; i < frequencies.length; i++) {
+            assertFrequency(TRIALS * 2 * i / 10.0, frequencies[i]);
+        }
+    }
+
+    @Test
+    public void weightedMerge() {
+        Random random = new Random(42);
+        int[] frequencies = new int[5];
+        for (int t = 0; t < TRIALS * 2; t++) {
+            WeightedReservoirSample<Integer> first = new WeightedReservoirSample<Integer>(1, Integer::doubleValue, random);
+            WeightedReservoirSample<Integer> second = new WeightedReservoirSample<Integer>(1, Integer::doubleValue, random);
+            first.addAll(Arrays.asList(1, 2));
+            second.addAll(Arrays.asList(3, 4));
+            first.merge(second);
+            assertEquals(4, first.count());
+            for (Integer elem : first) {
+                frequencies[elem]++;
+            }
+        }
+        for (int i = 1; i < frequencies.length; i++) {
+            assertFrequency(TRIALS * 2 * i / 10.0, frequencies[i]);
+        }
+    }
+
+    @Test
+    public void weightedLargeStream() {
+        Random random = new Random(42);
+        WeightedReservoirSample<Integer> sample = new WeightedReservoirSample<Integer>(100, Integer::doubleValue, random);
+        int stored = 0;
+        for (int i = 0; i < 1000000; i++) {
+            if (sample.add(i % 10 == 0 ? 1000 : 1)) {
+                stored++;
+            }
+        }
+        assertEquals(100, sample.size());
+        // heavy elements hold about 99% of the total weight
+        int heavy = 0;
+        for (Integer elem : sample) {
+            heavy += elem == 1000 ? 1 : 0;
+        }
+        assertTrue(heavy >= 95);
+        assertTrue(stored < 2000);
+        assertFalse(sample.add(0));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializeWeighted() throws Exception {
+        WeightedReservoirSample<Integer> sample = new WeightedReservoirSample<Integer>(5, Integer::doubleValue);
+        sample.addAll(Arrays.asList(1, 2, 3));
+        WeightedReservoirSample<Integer> copy = (WeightedReservoirSample<Integer>)WindowedTopNTest.copy(sample);
+        assertEquals(new HashSet<Integer>(sample), new HashSet<Integer>(copy));
+        assertTrue(copy.add(4, 4.0));
+        try {
+            copy.add(5);
+            fail();
+        } catch (IllegalStateException e) {
+            // weighting function was not serializable
+        }
+        sample = new WeightedReservoirSample<Integer>(5, (ToDoubleFunction<Integer> & Serializable)Integer::doubleValue);
+        sample.addAll(Arrays.asList(1, 2, 3));
+        copy = (WeightedReservoirSample<Integer>)WindowedTopNTest.copy(sample);
+        assertTrue(copy.add(4));
+        assertEquals(4, copy.size());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class SkylineTest {
+
+    private static final DominanceStrategy<Duple<Integer, Integer>> DUPLE_DOMINANCE =
+            new DominanceStrategy<Duple<Integer, Integer>>() {
+        @Override
+        public boolean dominates(Duple<Integer, Integer> elem1, Duple<Integer, Integer> elem2) {
+            return elem1.getX() >= elem2.getX() && elem1.getY() >= elem2.getY();
+        }
+    };
+
+    private static final DominanceStrategy<Triple<Integer, Integer, Integer>> TRIPLE_DOMINANCE =
+            new DominanceStrategy<Triple<Integer, Integer, Integer>>() {
+        @Override
+        public boolean dominates(Triple<Integer, Integer, Integer> elem1, Triple<Integer, Integer, Integer> elem2) {
+            return elem1.getX() >= elem2.getX() && elem1.getY() >= elem2.getY() && elem1.getZ() >= elem2.getZ();
+        }
+    };
+
+    // quadratic reference implementation, keeping the oldest of mutually dominating elements
+    private static <E> List<E> naive(List<E> input, DominanceStrategy<? super E> dominance) {
+        List<E> result = new ArrayList<E>();
+        for (int i = 0; i < input.size(); i++) {
+            boolean dominated = false;
+            for (int j = 0; j < input.size() && !dominated; j++) {
+                dominated = j != i && dominance.dominates(input.get(j), input.get(i))
+                        && (j < i || !dominance.dominates(input.get(i), input.get(j)));
+            }
+            if (!dominated) {
+                result.add(input.get(i));
+            }
+        }
+        return result;
+    }
+
+    private static <E extends Comparable<E>> void assertSameElements(List<E> expected, Skyline<E> actual) {
+        List<E> sorted = new ArrayList<E>(actual);
+        Collections.sort(expected);
+        Collections.sort(sorted);
+        assertEquals(expected.size(), sorted.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), sorted.get(i));
+        }
+    }
+
+    @Test
+    public void duples() {
+        Random random = new Random(42);
+        List<Duple<Integer, Integer>> input = new ArrayList<Duple<Integer, Integer>>();
+        for (int i = 0; i < 2000; i++) {
+            int x = random.nextInt(100);
+            input.add(new Duple<Integer, Integer>(x, random.nextInt(100) - x));
+        }
+        List<Duple<Integer, Integer>> expected = naive(input, DUPLE_DOMINANCE);
+        Skyline<Duple<Integer, Integer>> fast = Skyline.ofDuples();
+        Skyline<Duple<Integer, Integer>> generic = new Skyline<Duple<Integer, Integer>>(DUPLE_DOMINANCE);
+        for (Duple<Integer, Integer> elem : input) {
+            fast.add(elem);
+            generic.add(elem);
+        }
+        assertSameElements(expected, fast);
+        assertSameElements(expected, generic);
+        // descending order
+        List<Duple<Integer, Integer>> sorted = new ArrayList<Duple<Integer, Integer>>(fast);
+        Collections.sort(sorted, Collections.reverseOrder());
+        assertEquals(sorted, new ArrayList<Duple<Integer, Integer>>(fast));
+    }
+
+    @Test
+    public void triples() {
+        Random random = new Random(42);
+        List<Triple<Integer, Integer, Integer>> input = new ArrayList<Triple<Integer, Integer, Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            input.add(new Triple<Integer, Integer, Integer>(random.nextInt(20), random.nextInt(20), random.nextInt(20)));
+        }
+        List<Triple<Integer, Integer, Integer>> expected = naive(input, TRIPLE_DOMINANCE);
+        Skyline<Triple<Integer, Integer, Integer>> streamed = Skyline.ofTriples();
+        Skyline<Triple<Integer, Integer, Integer>> generic = new Skyline<Triple<Integer, Integer, Integer>>(TRIPLE_DOMINANCE);
+        for (Triple<Integer, Integer, Integer> elem : input) {
+            streamed.add(elem);
+            generic.add(elem);
+        }
+        assertSameElements(expected, streamed);
+        assertSameElements(expected, generic);
+        Skyline<Triple<Integer, Integer, Integer>> bulk = Skyline.ofTriples();
+        assertTrue(bulk.addAll(input));
+        assertSameElements(expected, bulk);
+        // bulk loading into a non-empty skyline
+        Skyline<Triple<Integer, Integer, Integer>> mixed = Skyline.ofTriples();
+        mixed.addAll(input.subList(0, 1000));
+        for (Triple<Integer, Integer, Integer> elem : input.subList(1000, 2000)) {
+            mixed.add(elem);
+        }
+        mixed.addAll(input.subList(2000, 3000));
+        assertSameElements(expected, mixed);
+    }
+
+    @Test
+    public void dominatedElements() {
+        Skyline<Duple<Integer, Integer>> skyline = Skyline.ofDuples();
+        Duple<Integer, Integer> first = new Duple<Integer, Integer>(5, 5);
+        assertTrue(skyline.add(first));
+        assertFalse(skyline.add(new Duple<Integer, Integer>(5, 5)));
+        assertFalse(skyline.add(new Duple<Integer, Integer>(3, 5)));
+        assertTrue(skyline.add(new Duple<Integer, Integer>(7, 1)));
+        assertTrue(skyline.add(new Duple<Integer, Integer>(1, 8)));
+        assertArrayEquals(new Object[] {new Duple<Integer, Integer>(7, 1), first, new Duple<Integer, Integer>(1, 8)},
+                skyline.toArray());
+        assertTrue(skyline.add(new Duple<Integer, Integer>(9, 9)));
+        assertEquals(Arrays.asList(new Duple<Integer, Integer>(9, 9)), new ArrayList<Duple<Integer, Integer>>(skyline));
+        skyline.clear();
+        assertTrue(skyline.isEmpty());
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import java.util.Random;
+
+/**
+ * Rough micro-benchmark comparing {@link ListTopN}, {@link HeapTopN} and
+ * {@link TreeTopN} (plus the adaptive collection from {@link TopNs#create(int)})
+ * for several values of <code>N</code> and workloads. It justifies the thresholds
+ * used by {@link AdaptiveTopN} to choose its backend. This is not a unit test;
+ * run it manually (for instance from the IDE, or with
+ * <code>java -cp target/classes:target/test-classes br.com.summa.sol.data.TopNBenchmark</code>)
+ * and compare the reported nanoseconds per added element.
+ *
+ * @author Einar Saukas
+ */
+public final class TopNBenchmark {
+
+    private static final int ELEMENTS = 1000000;
+    private static final int[] SIZES = {8, 32, 128, 512, 2048, 8192, 65536};
+    private static final int MAX_LIST_N = 8192;
+    private static final String[] BACKENDS = {"list", "heap", "tree", "adaptive"};
+
+    private TopNBenchmark() {
+    }
+
+    private enum Workload {
+        // uniform random stream: almost every element is rejected after warming up
+        RANDOM,
+        // ascending stream: every element is admitted, evicting the lowest one
+        ASCENDING,
+        // random stream, reading the current result after every 1000 elements
+        INTERLEAVED
+    }
+
+    private static TopN<Integer> create(String backend, int n) {
+        if (backend.equals("list")) {
+            return new ListTopN<Integer>(n);
+        } else if (backend.equals("heap")) {
+            return new HeapTopN<Integer>(n);
+        } else if (backend.equals("tree")) {
+            return new TreeTopN<Integer>(n);
+        } else {
+            return TopNs.create(n);
+        }
+    }
+
+    private static Integer[] input(Workload workload) {
+        final Integer[] input = new Integer[ELEMENTS];
+        final Random random = new Random(42);
+        for (int i = 0; i < ELEMENTS; i++) {
+            input[i] = workload == Workload.ASCENDING ? i : random.nextInt();
+        }
+        return input;
+    }
+
+    private static long run(String backend, int n, Workload workload, Integer[] input) {
+        final TopN<Integer> topN = create(backend, n);
+        long checksum = 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < input.length; i++) {
+            topN.add(input[i]);
+            if (workload == Workload.INTERLEAVED && i % 1000 == 999) {
+                checksum += topN.iterator().next();
+            }
+        }
+        for (Integer elem : topN) {
+            checksum += elem;
+        }
+        final long elapsed = System.nanoTime() - start;
+        if (checksum == 42) {
+            System.out.print("");
+        }
+        return elapsed;
+    }
+
+    public static void main(String[] args) {
+        for (Workload workload : Workload.values()) {
+            final Integer[] input = input(workload);
+            System.out.println(workload + " (ns per element)");
+            System.out.printf("%8s", "N");
+            for (String backend : BACKENDS) {
+                System.out.printf("%10s", backend);
+            }
+            System.out.println();
+            for (int n : SIZES) {
+                System.out.printf("%8d", n);
+                for (String backend : BACKENDS) {
+                    if (backend.equals("list") && n > MAX_LIST_N) {
+                        // far too slow, since each admitted element shifts up to N others
+                        System.out.printf("%10s", "-");
+                        continue;
+                    }
+                    long best = Long.MAX_VALUE;
+                    for (int round = 0; round < 3; round++) {
+                        best = Math.min(best, run(backend, n, workload, input));
+                    }
+                    System.out.printf("%10.1f", (double)best / ELEMENTS);
+                }
+                System.out.println();
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TopNCheckpointsTest {
+
+    private static final ElementCodec<Integer> CODEC = new ElementCodec<Integer>() {
+        @Override
+        public void write(Integer elem, DataOutput out) throws IOException {
+            out.writeInt(elem);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        Random random = new Random(42);
+        TopN<?>[] topNs = {new ListTopN<Integer>(10), new TreeTopN<Integer>(100, 120), new HeapTopN<Integer>(1000)};
+        for (TopN<?> topN : topNs) {
+            @SuppressWarnings("unchecked")
+            TopN<Integer> original = (TopN<Integer>)topN;
+            for (int i = 0; i < 10000; i++) {
+                original.add(random.nextInt(5000));
+            }
+            File file = folder.newFile();
+            TopNCheckpoints.save(original, CODEC, file);
+            TopN<Integer> restored = TopNCheckpoints.load(file, CODEC);
+            assertEquals(original.getClass(), restored.getClass());
+            assertEquals(original, restored);
+            assertArrayEquals(original.toArray(), restored.toArray());
+        }
+    }
+
+    @Test
+    public void saveAndLoadLimits() throws IOException {
+        TreeTopN<Integer> original = new TreeTopN<Integer>(2, 4, new LastDigitStrategy());
+        original.addAll(Arrays.asList(5, 3, 13, 23, 1));
+        File file = folder.newFile();
+        TopNCheckpoints.save(original, CODEC, file);
+        TopN<Integer> restored = TopNCheckpoints.load(file, CODEC, new LastDigitStrategy());
+        assertArrayEquals(new Object[] {23, 5}, restored.toArray());
+        assertFalse(restored.add(13));
+        assertFalse(restored.add(4));
+        assertTrue(restored.add(6));
+        assertArrayEquals(new Object[] {23, 6}, restored.toArray());
+    }
+
+    @Test(expected = IOException.class)
+    public void loadInvalid() throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        TopNCheckpoints.load(file, CODEC);
+    }
+
+    @Test
+    public void loadInvalidHeader() throws IOException {
+        int[][] headers = {{2, 1, 1}, {-1, 5, 0}, {5, 5, -1}, {5, 5, 6}, {5, 5, 3}};
+        for (int[] header : headers) {
+            File file = folder.newFile();
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            out.writeInt(0x546F704E);
+            out.writeByte(2);
+            out.writeByte(1);
+            for (int value : header) {
+                out.writeInt(value);
+            }
+            out.writeByte(0);
+            out.close();
+            try {
+                TopNCheckpoints.load(file, CODEC);
+                fail();
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void saveFailure() throws IOException {
+        ListTopN<Integer> original = new ListTopN<Integer>(10);
+        original.addAll(Arrays.asList(5, 3, 1));
+        File file = folder.newFile();
+        TopNCheckpoints.save(original, CODEC, file);
+        original.add(-1);
+        try {
+            TopNCheckpoints.save(original, new ElementCodec<Integer>() {
+                @Override
+                public void write(Integer elem, DataOutput out) throws IOException {
+                    if (elem < 0) {
+                        throw new IOException("Negative element");
+                    }
+                    CODEC.write(elem, out);
+                }
+
+                @Override
+                public Integer read(DataInput in) throws IOException {
+                    return CODEC.read(in);
+                }
+            }, file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        assertArrayEquals(new Object[] {5, 3, 1}, TopNCheckpoints.load(file, CODEC).toArray());
+    }
+
+    static class LastDigitStrategy extends KeyExclusionStrategy<Integer, Integer> {
+        @Override
+        public Integer exclusionKey(Integer elem) {
+            return elem.intValue() % 10;
+        }
+    }
+}
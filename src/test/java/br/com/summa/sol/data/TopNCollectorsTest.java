@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.com.summa.sol.data.HeapTopNTest.Tied;
+
+public class TopNCollectorsTest {
+
+    private static List<Tied> randomInput(int count) {
+        Random random = new Random(count);
+        List<Tied> input = new ArrayList<Tied>();
+        for (int i = 0; i < count; i++) {
+            input.add(new Tied(random.nextInt(count/10)));
+        }
+        return input;
+    }
+
+    private static void validateMerge(TopN<Tied> expected, TopN<Tied> left, TopN<Tied> right) {
+        List<Tied> input = randomInput(1000);
+        expected.addAll(input);
+        left.addAll(input.subList(0, 600));
+        right.addAll(input.subList(600, 1000));
+        left.merge(right);
+        assertEquals(expected.size(), left.size());
+        assertArrayEquals(expected.toArray(), left.toArray());
+    }
+
+    @Test
+    public void mergeListTopN() {
+        validateMerge(new ListTopN<Tied>(20), new ListTopN<Tied>(20), new ListTopN<Tied>(20));
+    }
+
+    @Test
+    public void mergeTreeTopN() {
+        validateMerge(new TreeTopN<Tied>(20), new TreeTopN<Tied>(20), new TreeTopN<Tied>(20));
+    }
+
+    @Test
+    public void mergeTreeTopNLenient() {
+        validateMerge(new TreeTopN<Tied>(20, 40), new TreeTopN<Tied>(20, 40), new TreeTopN<Tied>(20, 40));
+    }
+
+    @Test
+    public void mergeHeapTopN() {
+        validateMerge(new HeapTopN<Tied>(20), new HeapTopN<Tied>(20), new HeapTopN<Tied>(20));
+    }
+
+    @Test
+    public void mergeMixed() {
+        validateMerge(new HeapTopN<Tied>(20), new HeapTopN<Tied>(20), new TreeTopN<Tied>(20));
+    }
+
+    @Test
+    public void collectParallel() {
+        List<Tied> input = randomInput(100000);
+        TopN<Tied> expected = new ListTopN<Tied>(50);
+        expected.addAll(input);
+        assertArrayEquals(expected.toArray(),
+                input.parallelStream().collect(TopNCollectors.<Tied>topN(50)).toArray());
+        TopN<Tied> lenient = new TreeTopN<Tied>(50, 100);
+        lenient.addAll(input);
+        assertArrayEquals(lenient.toArray(),
+                input.parallelStream().collect(TopNCollectors.<Tied>topN(50, 100)).toArray());
+    }
+}
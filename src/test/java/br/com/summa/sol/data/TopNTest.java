@@ -16,7 +16,16 @@
 
 package br.com.summa.sol.data;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -103,5 +112,104 @@ public class TopNTest extends AbstractTopNTest {
                 Arrays.asList(x2b, x2a, x1a, x1b),
                 Arrays.asList(x2b, x2a, x1a));
     }
+
+    @Test
+    public void wouldAcceptBeforeAdd() {
+        List<TopN<Integer>> topNs = Arrays.<TopN<Integer>>asList(new ListTopN<Integer>(10),
+                new TreeTopN<Integer>(10, 15), new HeapTopN<Integer>(10),
+                new ConcurrentTopN<Integer>(10), new BufferedTopN<Integer>(10));
+        for (TopN<Integer> topN : topNs) {
+            Random random = new Random(42);
+            for (int i = 0; i < 1000; i++) {
+                Integer elem = random.nextInt(100);
+                if (!topN.wouldAccept(elem)) {
+                    assertFalse(topN.add(elem));
+                } else if (!(topN instanceof BufferedTopN) && !(topN instanceof ConcurrentTopN)) {
+                    assertTrue(topN.add(elem));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void thresholdListener() {
+        final List<Integer> thresholds = new ArrayList<Integer>();
+        ThresholdListener<Integer> listener = new ThresholdListener<Integer>() {
+            @Override
+            public void thresholdChanged(Integer threshold) {
+                thresholds.add(threshold);
+            }
+        };
+        ListTopN<Integer> listTopN = new ListTopN<Integer>(2);
+        TreeTopN<Integer> treeTopN = new TreeTopN<Integer>(2);
+        HeapTopN<Integer> heapTopN = new HeapTopN<Integer>(2);
+        listTopN.setThresholdListener(listener);
+        treeTopN.setThresholdListener(listener);
+        heapTopN.setThresholdListener(listener);
+        for (TopN<Integer> topN : Arrays.<TopN<Integer>>asList(listTopN, treeTopN, heapTopN)) {
+            thresholds.clear();
+            topN.addAll(Arrays.asList(5, 3, 9, 1, 4));
+            topN.clear();
+            assertEquals(Arrays.asList(3, 5, null), thresholds);
+        }
+    }
+
+    @Test
+    public void mergeByDefault() {
+        TopN<Integer> topN = new ExternalImplementation(3);
+        topN.addAll(Arrays.asList(1, 5));
+        TopN<Integer> other = new ListTopN<Integer>(3);
+        other.addAll(Arrays.asList(4, 2));
+        assertTrue(topN.merge(other));
+        assertEquals(Arrays.asList(5, 4, 2), new ArrayList<Integer>(topN));
+    }
+
+    @Test
+    public void wouldAcceptByDefault() {
+        TopN<Integer> topN = new ExternalImplementation(1);
+        topN.add(5);
+        assertTrue(topN.wouldAccept(1));
+        assertFalse(topN.add(1));
+    }
+
+    /**
+     * Minimal implementation outside this library, relying on default methods.
+     */
+    private static class ExternalImplementation extends AbstractCollection<Integer> implements TopN<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int n;
+        private final List<Integer> elems = new ArrayList<Integer>();
+
+        ExternalImplementation(int n) {
+            this.n = n;
+        }
+
+        @Override
+        public boolean add(Integer elem) {
+            int i = 0;
+            while (i < elems.size() && elems.get(i) >= elem) {
+                i++;
+            }
+            if (i >= n) {
+                return false;
+            }
+            elems.add(i, elem);
+            if (elems.size() > n) {
+                elems.remove(n);
+            }
+            return true;
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return elems.iterator();
+        }
+
+        @Override
+        public int size() {
+            return elems.size();
+        }
+    }
 }
 
@@ -0,0 +1,173 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import br.com.summa.sol.data.HeapTopNTest.Tied;
+
+public class TopNsTest {
+
+    @Test
+    public void mergeShards() {
+        Random random = new Random(42);
+        List<TopN<Integer>> shards = new ArrayList<TopN<Integer>>();
+        List<Integer> all = new ArrayList<Integer>();
+        for (int s = 0; s < 50; s++) {
+            TopN<Integer> shard = new HeapTopN<Integer>(20);
+            for (int i = 0; i < 100; i++) {
+                shard.add(random.nextInt(10000));
+            }
+            shards.add(shard);
+            all.addAll(shard);
+        }
+        shards.add(new ListTopN<Integer>(5));
+        Collections.sort(all, Collections.reverseOrder());
+        List<Integer> result = new ArrayList<Integer>();
+        for (Iterator<Integer> it = TopNs.merge(shards, 30); it.hasNext(); ) {
+            result.add(it.next());
+        }
+        assertEquals(all.subList(0, 30), result);
+    }
+
+    @Test
+    public void mergeTiesInSourceOrder() {
+        Tied a1 = new Tied(1);
+        Tied a2 = new Tied(2);
+        Tied b1 = new Tied(1);
+        Tied b2 = new Tied(2);
+        Tied c2 = new Tied(2);
+        Iterator<Tied> it = TopNs.mergeIterators(Arrays.asList(
+                Arrays.asList(a2, a1).iterator(),
+                Arrays.asList(b2, b1).iterator(),
+                Arrays.asList(c2).iterator()), Integer.MAX_VALUE);
+        for (Tied expected : new Tied[] {a2, b2, c2, a1, b1}) {
+            assertSame(expected, it.next());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void mergeReadsOnlyNeededElements() {
+        final List<Integer> read = new ArrayList<Integer>();
+        List<Iterator<Integer>> sources = new ArrayList<Iterator<Integer>>();
+        for (final List<Integer> source : Arrays.asList(Arrays.asList(9, 5, 1), Arrays.asList(8, 7, 6))) {
+            sources.add(new Iterator<Integer>() {
+                private final Iterator<Integer> it = source.iterator();
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Integer next() {
+                    Integer elem = it.next();
+                    read.add(elem);
+                    return elem;
+                }
+            });
+        }
+        Iterator<Integer> it = TopNs.mergeIterators(sources, 3);
+        assertEquals(Integer.valueOf(9), it.next());
+        assertEquals(Integer.valueOf(8), it.next());
+        assertEquals(Integer.valueOf(7), it.next());
+        assertFalse(it.hasNext());
+        assertEquals(Arrays.asList(9, 8, 5, 7), read);
+    }
+
+    @Test
+    public void mergeEmpty() {
+        assertFalse(TopNs.merge(new ArrayList<List<Integer>>()).hasNext());
+        assertFalse(TopNs.merge(Arrays.asList(Arrays.asList(3, 2)), 0).hasNext());
+    }
+
+    @Test
+    public void createAdaptsToWorkload() {
+        AdaptiveTopN<Integer> topN = (AdaptiveTopN<Integer>)TopNs.<Integer>create(1000);
+        assertTrue(topN.backend() instanceof ListTopN);
+        // ascending: every element is admitted
+        for (int i = 0; i < 20000; i++) {
+            topN.add(i);
+        }
+        assertTrue(topN.backend() instanceof TreeTopN);
+        // almost every element is rejected
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            topN.add(random.nextInt(19000));
+        }
+        assertTrue(topN.backend() instanceof HeapTopN);
+        // reading after each change
+        for (int i = 20000; i < 20003; i++) {
+            topN.add(i);
+            topN.iterator().next();
+        }
+        assertTrue(topN.backend() instanceof TreeTopN);
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 20002; i > 19002; i--) {
+            expected.add(i);
+        }
+        assertEquals(expected, new ArrayList<Integer>(topN));
+    }
+
+    @Test
+    public void createKeepsTieOrder() {
+        TopN<Tied> topN = TopNs.create(600);
+        Tied[] elems = new Tied[700];
+        for (int i = 0; i < elems.length; i++) {
+            elems[i] = new Tied(1);
+            assertEquals(i < 600, topN.add(elems[i]));
+        }
+        assertTrue(((AdaptiveTopN<Tied>)topN).backend() instanceof HeapTopN);
+        int i = 0;
+        for (Tied elem : topN) {
+            assertSame(elems[i++], elem);
+        }
+        assertEquals(600, i);
+    }
+
+    @Test
+    public void createWithLimits() {
+        TopN<Integer> topN = TopNs.create(2, 4, null);
+        topN.addAll(Arrays.asList(5, 3, 5, 3, 3, 1));
+        assertEquals(Arrays.asList(5, 5), new ArrayList<Integer>(topN));
+        topN = TopNs.create(1000, 1000, new ExclusionStrategy<Integer>() {
+            @Override
+            public boolean mutuallyExclusive(Integer elem1, Integer elem2) {
+                return elem1 % 1000 == elem2 % 1000;
+            }
+        });
+        for (int i = 0; i < 3000; i++) {
+            topN.add(i);
+        }
+        assertTrue(((AdaptiveTopN<Integer>)topN).backend() instanceof TreeTopN);
+        assertEquals(1000, topN.size());
+        assertEquals(2999, topN.iterator().next().intValue());
+    }
+}
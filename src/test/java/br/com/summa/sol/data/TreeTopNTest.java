@@ -16,10 +16,24 @@
 
 package br.com.summa.sol.data;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Test;
 
+import br.com.summa.sol.data.HeapTopNTest.Tied;
+
 public class TreeTopNTest extends AbstractTopNTest {
     @Test
     public void addAll1Lenient() {
@@ -81,6 +95,18 @@ public class TreeTopNTest extends AbstractTopNTest {
         validate(new TreeTopN<Integer>(3, Integer.MAX_VALUE), Arrays.asList(3, 2, 2, 3, 1, 4, 4, 1), Arrays.asList(4, 4, 3, 3));
     }
 
+    @Test
+    public void addAllExclusiveLenient() {
+        validate(new TreeTopN<Integer>(3, Integer.MAX_VALUE, new ListTopNTest.UniqueLastDigitStrategy()),
+                Arrays.asList(1, 2, 3, 4, 12, 14, 22, 13, 23, 22), Arrays.asList(23, 22, 14));
+    }
+
+    @Test
+    public void addAllExclusiveByKeyLenient() {
+        validate(new TreeTopN<Integer>(2, Integer.MAX_VALUE, new ListTopNTest.UniqueLastDigitKeyStrategy()),
+                Arrays.asList(5, 5, 1, 11, 2, 11, 3), Arrays.asList(11, 5));
+    }
+
     @Test
     public void addAllAscendingValidateRepetitionOrderLenient() {
         Integer x1a = 1;
@@ -93,6 +119,132 @@ public class TreeTopNTest extends AbstractTopNTest {
                 Arrays.asList(x2a, x2b, x1a, x1b));
     }
 
+    @Test
+    public void addAllManyTies() {
+        Tied[] elems = new Tied[8];
+        for (int i = 0; i < elems.length; i++) {
+            elems[i] = new Tied(i == 0 ? 5 : i == 7 ? 1 : 3);
+        }
+        TreeTopN<Tied> topN = new TreeTopN<Tied>(2, 4);
+        topN.addAll(Arrays.asList(elems));
+        assertArrayEquals(new Object[] {elems[0], elems[1], elems[2], elems[3]}, topN.toArray());
+        // the whole group of ties at the Nth position is discarded at once
+        Tied four = new Tied(4);
+        topN.add(four);
+        assertArrayEquals(new Object[] {elems[0], four}, topN.toArray());
+    }
+
+    @Test
+    public void rankAndSelect() {
+        Random random = new Random(42);
+        TreeTopN<Integer> topN = new TreeTopN<Integer>(300, 400, new ListTopNTest.UniqueLastDigitKeyStrategy() {
+            @Override
+            public Integer exclusionKey(Integer elem) {
+                return elem.intValue() % 1000;
+            }
+        });
+        for (int i = 0; i < 5000; i++) {
+            topN.add(random.nextInt(3000));
+            if (i % 500 == 0) {
+                validateRanks(topN);
+            }
+        }
+        validateRanks(topN);
+        topN.clear();
+        for (int i = 0; i < 5000; i++) {
+            topN.add(random.nextInt(50));
+        }
+        validateRanks(new TreeTopN<Integer>(30, 100));
+        validateRanks(topN);
+    }
+
+    @Test
+    public void mergeRankAndSelect() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            TreeTopN<Integer> topN = new TreeTopN<Integer>(200, 250);
+            TreeTopN<Integer> other = new TreeTopN<Integer>(150);
+            TreeTopN<Integer> expected = new TreeTopN<Integer>(200, 250);
+            for (int i = 0; i < 300; i++) {
+                Integer elem = random.nextInt(round * 50 + 10);
+                if (random.nextBoolean()) {
+                    topN.add(elem);
+                } else {
+                    other.add(elem);
+                }
+            }
+            expected.addAll(topN);
+            expected.addAll(other);
+            topN.merge(other);
+            assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(topN));
+            validateRanks(topN);
+            topN.addAll(Arrays.asList(random.nextInt(100), random.nextInt(100)));
+            validateRanks(topN);
+        }
+    }
+
+    private static void validateRanks(TreeTopN<Integer> topN) {
+        List<Integer> expected = new ArrayList<Integer>(topN);
+        assertEquals(expected.size(), topN.size());
+        for (int k = 0; k < expected.size(); k++) {
+            Integer elem = expected.get(k);
+            assertEquals(elem, topN.select(k));
+            assertEquals(expected.indexOf(elem), topN.rank(elem));
+        }
+        assertEquals(0, topN.rank(Integer.MAX_VALUE));
+        assertEquals(expected.size(), topN.rank(Integer.MIN_VALUE));
+        for (int from = 0; from <= expected.size(); from += 7) {
+            int to = Math.min(expected.size(), from + 11);
+            assertEquals(expected.subList(from, to), topN.subRange(from, to));
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailFast() {
+        TreeTopN<Integer> topN = new TreeTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        topN.add(4);
+        it.next();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void iteratorFailFastAfterMerge() {
+        TreeTopN<Integer> topN = new TreeTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        Iterator<Integer> it = topN.iterator();
+        it.next();
+        TreeTopN<Integer> other = new TreeTopN<Integer>(3);
+        other.add(4);
+        topN.merge(other);
+        it.next();
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void selectOutOfRange() {
+        TreeTopN<Integer> topN = new TreeTopN<Integer>(3);
+        topN.addAll(Arrays.asList(1, 2, 3));
+        topN.select(3);
+    }
+
+    @Test
+    public void serializeTies() throws Exception {
+        TreeTopN<Integer> topN = new TreeTopN<Integer>(3, 6);
+        topN.addAll(Arrays.asList(7, 5, 5, 9, 3, 5));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(topN);
+        out.close();
+        @SuppressWarnings("unchecked")
+        TreeTopN<Integer> copy = (TreeTopN<Integer>)new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(topN, copy);
+        copy.addAll(Arrays.asList(9, 7));
+        assertArrayEquals(new Object[] {9, 9, 7, 7}, copy.toArray());
+        assertArrayEquals(new Object[] {9, 7, 5, 5, 5}, topN.toArray());
+    }
+
     @Test
     public void addAllDescendingValidateRepetitionOrderLenient() {
         Integer x1a = 1;
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2012 by Summa Technologies do Brasil.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package br.com.summa.sol.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import org.junit.Test;
+
+public class WindowedTopNTest {
+
+    @Test
+    public void addAllWithinWindow() {
+        ManualClock clock = new ManualClock();
+        WindowedTopN<Integer> topN = new WindowedTopN<Integer>(3, 60, TimeUnit.SECONDS, 6, clock);
+        topN.addAll(Arrays.asList(5, 1, 7));
+        clock.advance(15000);
+        topN.addAll(Arrays.asList(2, 6, 3));
+        assertArrayEquals(new Object[] {7, 6, 5}, topN.toArray());
+    }
+
+    @Test
+    public void expireOldestBuckets() {
+        ManualClock clock = new ManualClock();
+        WindowedTopN<Integer> topN = new WindowedTopN<Integer>(3, 60, TimeUnit.SECONDS, 6, clock);
+        topN.addAll(Arrays.asList(9, 8));
+        clock.advance(30000);
+        topN.addAll(Arrays.asList(4, 5));
+        assertArrayEquals(new Object[] {9, 8, 5}, topN.toArray());
+        clock.advance(30000);
+        topN.add(1);
+        assertArrayEquals(new Object[] {5, 4, 1}, topN.toArray());
+        clock.advance(60000);
+        assertTrue(topN.isEmpty());
+    }
+
+    @Test
+    public void decayedScores() {
+        ManualClock clock = new ManualClock();
+        DecayedTopN<Integer> topN = new DecayedTopN<Integer>(2, 1, TimeUnit.MINUTES, Integer::doubleValue, clock);
+        topN.addAll(Arrays.asList(100, 30, 20));
+        assertArrayEquals(new Object[] {100, 30}, topN.toArray());
+        clock.advance(120000);
+        // after 2 half-lives 100 decays to 25 and 30 decays to 7.5
+        assertTrue(topN.add(26));
+        assertArrayEquals(new Object[] {26, 100}, topN.toArray());
+        assertFalse(topN.add(24));
+        assertEquals(2, topN.size());
+    }
+
+    @Test
+    public void clockMovingBackwards() {
+        ManualClock clock = new ManualClock();
+        WindowedTopN<Integer> topN = new WindowedTopN<Integer>(3, 60, TimeUnit.SECONDS, 6, clock);
+        topN.addAll(Arrays.asList(9, 8));
+        clock.advance(10000);
+        topN.add(7);
+        clock.advance(-10000);
+        topN.add(6);
+        assertArrayEquals(new Object[] {9, 8, 7}, topN.toArray());
+        clock.advance(60000);
+        assertArrayEquals(new Object[] {7, 6}, topN.toArray());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void serializeDecayed() throws Exception {
+        DecayedTopN<Integer> topN = new DecayedTopN<Integer>(2, 1, TimeUnit.MINUTES, Integer::doubleValue);
+        topN.addAll(Arrays.asList(100, 30, 20));
+        DecayedTopN<Integer> copy = (DecayedTopN<Integer>)copy(topN);
+        assertArrayEquals(new Object[] {100, 30}, copy.toArray());
+        try {
+            copy.add(50);
+            fail();
+        } catch (IllegalStateException e) {
+            // scoring function was not serializable
+        }
+        topN = new DecayedTopN<Integer>(2, 1, TimeUnit.MINUTES,
+                (ToDoubleFunction<Integer> & Serializable)Integer::doubleValue);
+        topN.addAll(Arrays.asList(100, 30, 20));
+        copy = (DecayedTopN<Integer>)copy(topN);
+        assertTrue(copy.add(50));
+        assertArrayEquals(new Object[] {100, 50}, copy.toArray());
+    }
+
+    static Object copy(Object obj) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(obj);
+        out.close();
+        return new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+    }
+
+    static class ManualClock extends Clock {
+        private long millis = 1000000000000L;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}